@@ -0,0 +1,148 @@
+package tetris;
+import java.util.Arrays;
+
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * Runs an {@link AudioMixer} against a {@link AudioOutput.NullOutput} and
+ * checks what it mixes. Every sample holds one constant value, so the
+ * first value of a mixed buffer tells which voices are playing and at
+ * what volume. Run by {@code mvn test}.
+ */
+public class AudioMixerTest
+{
+	private static final long TIMEOUT_NANOS = 5 * 1000000000L;
+	
+	// long enough that nothing ends while a test runs
+	private static final int SAMPLE_FRAMES = 20 * 44100;
+	
+	public void testVoiceStealing() throws LineUnavailableException, InterruptedException
+	{
+		LastValueOutput output = new LastValueOutput();
+		
+		AudioMixer mixer = new AudioMixer(output, AudioMixer.DEFAULT_BUFFER_FRAMES);
+		
+		AudioMixer.Sample music = sample(1000, 1),
+						  effect = sample(1, AudioMixer.MAX_VOICES),
+						  limited = sample(100, 4);
+		
+		mixer.start();
+		
+		try {
+			mixer.play(music, AudioMixer.MUSIC, true);
+			
+			for(int i = 1; i < AudioMixer.MAX_VOICES; i++)
+				mixer.play(effect, AudioMixer.EFFECTS, false);
+			
+			awaitMix(output, 1000 + 15, "every voice busy");
+			
+			// the oldest effect is stolen, never the looping music
+			mixer.play(limited, AudioMixer.EFFECTS, false);
+			
+			awaitMix(output, 1000 + 14 + 100, "one effect stolen");
+			
+			for(int i = 1; i < 4; i++)
+				mixer.play(limited, AudioMixer.EFFECTS, false);
+			
+			awaitMix(output, 1000 + 11 + 400, "four effects stolen");
+			
+			// at its own limit the sample takes its own oldest voice instead
+			mixer.play(limited, AudioMixer.EFFECTS, false);
+			
+			awaitStarted(mixer, AudioMixer.MAX_VOICES + 5);
+			
+			if(output.last != 1000 + 11 + 400)
+				throw new AssertionError("Mixed " + output.last + " with the limited sample over its limit");
+			
+			if(mixer.getActiveVoices() != AudioMixer.MAX_VOICES)
+				throw new AssertionError(mixer.getActiveVoices() + " voices active");
+			
+			mixer.stopAll(AudioMixer.EFFECTS);
+			
+			awaitMix(output, 1000, "effects stopped");
+		}
+		finally {
+			mixer.stop();
+		}
+	}
+	
+	public void testChannelVolumes() throws LineUnavailableException, InterruptedException
+	{
+		LastValueOutput output = new LastValueOutput();
+		
+		AudioMixer mixer = new AudioMixer(output, AudioMixer.DEFAULT_BUFFER_FRAMES);
+		
+		mixer.start();
+		
+		try {
+			mixer.play(sample(1000, 1), AudioMixer.MUSIC, true);
+			mixer.play(sample(100, 1), AudioMixer.EFFECTS, false);
+			
+			awaitMix(output, 1100, "both channels at full volume");
+			
+			mixer.setVolume(AudioMixer.MUSIC, 0.5f);
+			
+			awaitMix(output, 600, "music at half volume");
+			
+			mixer.setVolume(AudioMixer.EFFECTS, 0);
+			
+			awaitMix(output, 500, "effects muted");
+			
+			mixer.setVolume(AudioMixer.MUSIC, 1);
+			
+			awaitMix(output, 1000, "music back at full volume");
+		}
+		finally {
+			mixer.stop();
+		}
+	}
+	
+	private static AudioMixer.Sample sample(int value, int maxVoices)
+	{
+		short[] data = new short[SAMPLE_FRAMES * 2];
+		
+		Arrays.fill(data, (short) value);
+		
+		return new AudioMixer.Sample(data, maxVoices);
+	}
+	
+	private static void awaitMix(LastValueOutput output, int expected, String what) throws InterruptedException
+	{
+		long start = System.nanoTime();
+		
+		while(output.last != expected)
+		{
+			if(System.nanoTime() - start > TIMEOUT_NANOS)
+				throw new AssertionError("Mixed " + output.last + ", not " + expected + ", with " + what);
+			
+			Thread.sleep(1);
+		}
+	}
+	
+	// every sound started so far has been mixed into a buffer the output took
+	private static void awaitStarted(AudioMixer mixer, int count) throws InterruptedException
+	{
+		long start = System.nanoTime();
+		
+		while(mixer.getLatency().getCount() < count)
+		{
+			if(System.nanoTime() - start > TIMEOUT_NANOS)
+				throw new AssertionError(mixer.getLatency().getCount() + " of " + count + " sounds started");
+			
+			Thread.sleep(1);
+		}
+	}
+	
+	/** Keeps the first value of every buffer written, at the real-time rate. */
+	private static class LastValueOutput extends AudioOutput.NullOutput
+	{
+		private volatile int last;
+		
+		public void write(byte[] data, int off, int len)
+		{
+			last = (short) ((data[off] & 0xff) | (data[off + 1] << 8));
+			
+			super.write(data, off, len);
+		}
+	}
+}
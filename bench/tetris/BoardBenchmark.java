@@ -0,0 +1,71 @@
+package tetris;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark
+{
+	@Param({Boards.EMPTY, Boards.HALF_FULL, Boards.NEAR_TOP_OUT, Boards.MULTI_LINE})
+	public String layout;
+	
+	private Board template, board;
+	
+	@Setup
+	public void setup()
+	{
+		template = Boards.create(layout);
+		
+		board = new Board();
+		
+		board.copyFrom(template);
+	}
+	
+	@Benchmark
+	public int filledRows()
+	{
+		int filled = 0;
+		
+		for(int row = 1; row < Board.ROWS; row++)
+			if(board.isFilledRow(row))
+				filled++;
+		
+		return filled;
+	}
+	
+	@Benchmark
+	public Board copy()
+	{
+		board.copyFrom(template);
+		
+		return board;
+	}
+	
+	// includes the cost of copy() to restore the rows it removes
+	@Benchmark
+	public Board dropFilledRows()
+	{
+		board.copyFrom(template);
+		
+		for(int row = 1; row < Board.ROWS; row++)
+			if(board.isFilledRow(row))
+				board.dropRow(row);
+		
+		return board;
+	}
+}
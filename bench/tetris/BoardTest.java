@@ -0,0 +1,289 @@
+package tetris;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Checks the column tops {@link Board} keeps alongside its rows, and the
+ * landing rows worked out from them. Boards are built by random fills
+ * and clears, so they have overhangs and holes, and are pushed up by
+ * garbage, have rows dropped, and are copied and restored. After every
+ * change each column's top must match one found again from the rows,
+ * and every landing row must match a piece moved down one row at a time.
+ * Run by {@code mvn test}.
+ */
+public class BoardTest
+{
+	private static final int MUTATIONS = 20000;
+	
+	// boards whose landing rows are checked at every position
+	private static final int LANDING_BOARDS = 200;
+	
+	// how far off the sides and above the top pieces are placed
+	private static final int MARGIN = 3;
+	
+	public void testColumnTopsFollowEveryChange()
+	{
+		Random rand = new Random(1);
+		
+		Board board = new Board(), other = new Board();
+		
+		// earlier states, restored later over whatever the board holds then
+		ByteBuffer[] saved = new ByteBuffer[8];
+		
+		ByteBuffer spare = ByteBuffer.allocate(Board.STATE_SIZE);
+		
+		for(int i = 0; i < saved.length; i++)
+		{
+			saved[i] = ByteBuffer.allocate(Board.STATE_SIZE);
+			
+			board.save(saved[i]);
+		}
+		
+		int[] counts = new int[8];
+		
+		for(int i = 0; i < MUTATIONS; i++)
+		{
+			int op = rand.nextInt(100);
+			
+			String change;
+			
+			if(op < 50)
+			{
+				// filled anywhere, not only on the stack, so overhangs form
+				int row = rand.nextInt(Board.ROWS), col = rand.nextInt(Board.COLS);
+				
+				board.fill(row, col, (byte) (1 + rand.nextInt(Piece.TYPES)));
+				
+				change = "fill(" + row + ", " + col + ")";
+				counts[0]++;
+			}
+			else if(op < 75)
+			{
+				// usually a column's top cell, which uncovers whatever is under it
+				int col = rand.nextInt(Board.COLS),
+					row = rand.nextBoolean() && board.getColumnTop(col) < Board.ROWS ?
+						  board.getColumnTop(col) : rand.nextInt(Board.ROWS);
+				
+				board.clear(row, col);
+				
+				change = "clear(" + row + ", " + col + ")";
+				counts[1]++;
+			}
+			else if(op < 85)
+			{
+				int row = rand.nextInt(Board.ROWS);
+				
+				board.dropRow(row);
+				
+				change = "dropRow(" + row + ")";
+				counts[2]++;
+			}
+			else if(op < 92)
+			{
+				int count = 1 + rand.nextInt(4), hole = rand.nextInt(Board.COLS);
+				
+				board.addGarbage(count, hole);
+				
+				change = "addGarbage(" + count + ", " + hole + ")";
+				counts[3]++;
+			}
+			else if(op < 96)
+			{
+				int index = rand.nextInt(saved.length);
+				
+				// the board is kept in place of the state restored over it, for later
+				spare.clear();
+				board.save(spare);
+				
+				ByteBuffer earlier = saved[index];
+				
+				earlier.clear();
+				board.restore(earlier);
+				
+				saved[index] = spare;
+				spare = earlier;
+				
+				change = "restore";
+				counts[4]++;
+			}
+			else if(op < 98)
+			{
+				other.copyFrom(board);
+				
+				Board swap = board;
+				board = other;
+				other = swap;
+				
+				change = "copyFrom";
+				counts[5]++;
+			}
+			else if(op < 99)
+			{
+				board.clear();
+				
+				change = "clear()";
+				counts[6]++;
+			}
+			else
+			{
+				int row = Board.ROWS - 1 - rand.nextInt(4);
+				
+				// a full row, dropped as a line clear does
+				for(int col = 0; col < Board.COLS; col++)
+					board.fill(row, col, (byte) 1);
+				
+				board.dropRow(row);
+				
+				change = "line clear at " + row;
+				counts[7]++;
+			}
+			
+			checkTops(board, "after " + change + ", change " + i);
+		}
+		
+		for(int count : counts)
+			if(count == 0)
+				throw new AssertionError("Some kind of change was never made");
+	}
+	
+	public void testLandingRowsMatchMovingDown()
+	{
+		Random rand = new Random(2);
+		
+		Board board = new Board();
+		
+		ByteBuffer buffer = ByteBuffer.allocate(Board.STATE_SIZE);
+		
+		Piece[] pieces = new Piece[Piece.TYPES];
+		
+		for(int type = 1; type <= Piece.TYPES; type++)
+			pieces[type - 1] = Piece.create(type, 0, 0);
+		
+		int tucked = 0;
+		
+		for(int i = 0; i < LANDING_BOARDS; i++)
+		{
+			Board stack = overhangs(rand);
+			
+			if(i % 3 == 1)
+				stack.addGarbage(1 + rand.nextInt(6), rand.nextInt(Board.COLS));
+			
+			// landing rows are read from the restored board, not the one built
+			buffer.clear();
+			stack.save(buffer);
+			
+			buffer.clear();
+			board.restore(buffer);
+			
+			checkTops(board, "restoring board " + i);
+			
+			for(Piece piece : pieces)
+			{
+				for(int orientation = 0; orientation < 4; orientation++)
+				{
+					for(int row = -MARGIN; row < Board.ROWS; row++)
+					{
+						for(int col = -MARGIN; col < Board.COLS + MARGIN; col++)
+						{
+							piece.moveTo(row, col, orientation);
+							
+							Shape shape = piece.shape();
+							
+							int expected = moveDown(piece, board),
+								landing = board.getLandingRow(shape, row, col);
+							
+							if(landing != expected)
+								throw new AssertionError("Board " + i + ", type " + piece.getType() +
+														 " turned " + orientation + " at " + row + ", " + col +
+														 " lands at " + landing + ", not " + expected);
+							
+							if(expected >= row && underTop(board, shape, row, col))
+								tucked++;
+						}
+					}
+				}
+			}
+		}
+		
+		if(tucked == 0)
+			throw new AssertionError("No piece was placed under an overhang");
+	}
+	
+	/** A ragged stack with holes, then cells filled above some of them. */
+	private static Board overhangs(Random rand)
+	{
+		Board board = new Board();
+		
+		for(int col = 0; col < Board.COLS; col++)
+		{
+			int top = Board.ROWS / 2 + rand.nextInt(Board.ROWS / 2 + 1);
+			
+			for(int row = top; row < Board.ROWS; row++)
+				if(rand.nextInt(5) != 0)
+					board.fill(row, col, (byte) (1 + rand.nextInt(Piece.TYPES)));
+		}
+		
+		// ledges a few rows above the stack, leaving room under them
+		for(int ledges = rand.nextInt(6); ledges > 0; ledges--)
+		{
+			int row = Board.ROWS / 4 + rand.nextInt(Board.ROWS / 2), col = rand.nextInt(Board.COLS);
+			
+			for(int width = 1 + rand.nextInt(3); width > 0 && col < Board.COLS; width--, col++)
+				board.fill(row, col, Board.GARBAGE);
+		}
+		
+		return board;
+	}
+	
+	/** Where the piece stops when moved down one row at a time, or one above where it starts if it collides there. */
+	private static int moveDown(Piece piece, Board board)
+	{
+		int start = piece.getRow();
+		
+		while(!piece.collides(board))
+			piece.moveDown();
+		
+		int landing = piece.getRow() - 1;
+		
+		piece.moveTo(start, piece.getCol(), piece.getOrientation());
+		
+		return landing;
+	}
+	
+	// some cell is on the board at or below its column's top
+	private static boolean underTop(Board board, Shape shape, int row, int col)
+	{
+		for(int i = 0; i < Shape.SIZE; i++)
+		{
+			int cellRow = row + shape.getRow(i),
+				cellCol = col + shape.getCol(i);
+			
+			if(cellCol >= 0 && cellCol < Board.COLS && cellRow >= board.getColumnTop(cellCol))
+				return true;
+		}
+		
+		return false;
+	}
+	
+	private static void checkTops(Board board, String when)
+	{
+		for(int col = 0; col < Board.COLS; col++)
+		{
+			int top = 0;
+			
+			while(top < Board.ROWS && (board.getRow(top) & (1 << col)) == 0)
+				top++;
+			
+			if(board.getColumnTop(col) != top)
+				throw new AssertionError("Column " + col + " has its top at " + board.getColumnTop(col) +
+										 " but its rows put it at " + top + ", " + when);
+			
+			if(board.getColumnHeight(col) != Board.ROWS - top)
+				throw new AssertionError("Column " + col + " is " + board.getColumnHeight(col) + " high, " + when);
+			
+			for(int row = 0; row < Board.ROWS; row++)
+				if(board.isFilled(row, col) != (board.getColor(row, col) != Board.EMPTY))
+					throw new AssertionError("Cell " + row + ", " + col + " has a color that disagrees with its row, " + when);
+		}
+	}
+}
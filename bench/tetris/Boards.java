@@ -0,0 +1,56 @@
+package tetris;
+import java.util.Random;
+
+/**
+ * Representative playfields for the benchmarks. Every layout is built
+ * from a fixed seed so runs are comparable across releases.
+ */
+public class Boards
+{
+	public static final String EMPTY = "EMPTY",
+							   HALF_FULL = "HALF_FULL",
+							   NEAR_TOP_OUT = "NEAR_TOP_OUT",
+							   MULTI_LINE = "MULTI_LINE";
+	
+	private static final long SEED = 42;
+	
+	public static Board create(String layout)
+	{
+		Board board = new Board();
+		
+		Random rand = new Random(SEED);
+		
+		if(EMPTY.equals(layout))
+			return board;
+		else if(HALF_FULL.equals(layout))
+			fillWithGaps(board, Board.ROWS / 2, Board.ROWS, rand);
+		else if(NEAR_TOP_OUT.equals(layout))
+			fillWithGaps(board, 3, Board.ROWS, rand);
+		else if(MULTI_LINE.equals(layout))
+		{
+			// four full rows under a ragged stack, ready for a tetris
+			fillWithGaps(board, Board.ROWS - 10, Board.ROWS - 4, rand);
+			
+			for(int row = Board.ROWS - 4; row < Board.ROWS; row++)
+				for(int col = 0; col < Board.COLS; col++)
+					board.fill(row, col, (byte) (1 + rand.nextInt(Piece.TYPES)));
+		}
+		else
+			throw new IllegalArgumentException("Unknown layout: " + layout);
+		
+		return board;
+	}
+	
+	// fills rows [start, end) leaving one random hole per row
+	private static void fillWithGaps(Board board, int start, int end, Random rand)
+	{
+		for(int row = start; row < end; row++)
+		{
+			int hole = rand.nextInt(Board.COLS);
+			
+			for(int col = 0; col < Board.COLS; col++)
+				if(col != hole)
+					board.fill(row, col, (byte) (1 + rand.nextInt(Piece.TYPES)));
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package tetris;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole-move costs. Both benchmarks change the game irreversibly, so the
+ * game is rebuilt before every invocation; expect a few hundred
+ * nanoseconds of timer noise on top of the reported figures.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameBenchmark
+{
+	private static final long SEED = 7;
+	
+	@Param({Boards.EMPTY, Boards.HALF_FULL, Boards.NEAR_TOP_OUT, Boards.MULTI_LINE})
+	public String layout;
+	
+	private Board template;
+	
+	private Game game, clearing;
+	
+	@Setup
+	public void setupTemplate() {
+		template = Boards.create(layout);
+	}
+	
+	@Setup(Level.Invocation)
+	public void setupGames()
+	{
+		game = new Game(SEED);
+		game.getBoard().copyFrom(template);
+		
+		// lock a piece so any full rows enter the line-clear animation
+		clearing = new Game(SEED);
+		clearing.getBoard().copyFrom(template);
+		clearing.hardDrop();
+	}
+	
+	@Benchmark
+	public Game hardDrop()
+	{
+		game.hardDrop();
+		
+		return game;
+	}
+	
+	// one long step: gravity on most layouts, the full row removal on MULTI_LINE
+	@Benchmark
+	public Game update()
+	{
+		clearing.update(1.0);
+		
+		return clearing;
+	}
+}
@@ -0,0 +1,212 @@
+package tetris;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks {@link Game#save} and {@link Game#restore}: saving a restored
+ * game gives back the same bytes, a restored game plays on exactly as
+ * the original does, and once warmed up restoring allocates nothing.
+ * States are taken from random play in every generator mode, including
+ * ones with rows being cleared and garbage waiting. Run by {@code mvn test}.
+ */
+public class GameStateTest
+{
+	// states taken per generator mode
+	private static final int STATES_PER_MODE = 100;
+	
+	// steps a restored game is played alongside the original
+	private static final int STEPS_ALONGSIDE = 600;
+	
+	public void testRoundTrip()
+	{
+		Game restored = new Game(0);
+		
+		for(Game game : states())
+		{
+			byte[] saved = save(game);
+			
+			restored.restore(ByteBuffer.wrap(saved));
+			
+			if(!Arrays.equals(save(restored), saved))
+				throw new AssertionError("Saving a restored game changed its state: " + describe(game));
+		}
+	}
+	
+	public void testRestoredGamePlaysOnTheSame()
+	{
+		Random rand = new Random(2);
+		
+		// one game restored over and over, as a packed session host does
+		Game restored = new Game(PieceGenerator.create(PieceGenerator.Mode.HISTORY, 99));
+		
+		for(Game game : states())
+		{
+			// caches the ghost of the game restored before, which must not survive
+			restored.getGhostRow();
+			
+			restored.restore(ByteBuffer.wrap(save(game)));
+			
+			if(restored.getGhostRow() != game.getGhostRow())
+				throw new AssertionError("Restored game's ghost differs: " + describe(game));
+			
+			for(int step = 0; step < STEPS_ALONGSIDE; step++)
+			{
+				if(rand.nextInt(8) == 0)
+				{
+					int action = rand.nextInt(InputQueue.HARD_DROP + 1);
+					
+					InputQueue.apply(game, action);
+					InputQueue.apply(restored, action);
+				}
+				
+				if(rand.nextInt(200) == 0)
+				{
+					int count = 1 + rand.nextInt(3),
+						hole = rand.nextInt(Board.COLS);
+					
+					game.addGarbage(count, hole);
+					restored.addGarbage(count, hole);
+				}
+				
+				game.update(BatchRunner.STEP);
+				restored.update(BatchRunner.STEP);
+				
+				if(!Arrays.equals(save(restored), save(game)))
+					throw new AssertionError("Restored game differs after " + (step + 1) + " steps: " + describe(game));
+				
+				if(restored.getGhostRow() != game.getGhostRow())
+					throw new AssertionError("Restored game's ghost differs after " + (step + 1) + " steps");
+			}
+		}
+	}
+	
+	public void testRestoreDoesNotAllocate()
+	{
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		
+		// nothing to measure with on this JVM
+		if(!(threads instanceof com.sun.management.ThreadMXBean))
+			return;
+		
+		com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+		
+		List<Game> states = states();
+		
+		ByteBuffer[] saved = new ByteBuffer[states.size()];
+		
+		for(int i = 0; i < saved.length; i++)
+			saved[i] = ByteBuffer.wrap(save(states.get(i)));
+		
+		Game game = new Game(0);
+		
+		long perRestore = Long.MAX_VALUE;
+		
+		// the first rounds meet every piece type and mode, and warm up the JIT
+		for(int round = 0; round < 10 && perRestore > 0; round++)
+		{
+			long before = allocation.getThreadAllocatedBytes(Thread.currentThread().getId());
+			
+			for(int i = 0; i < 100000; i++)
+			{
+				ByteBuffer buffer = saved[i % saved.length];
+				
+				buffer.clear();
+				
+				game.restore(buffer);
+			}
+			
+			perRestore = (allocation.getThreadAllocatedBytes(Thread.currentThread().getId()) - before) / 100000;
+		}
+		
+		if(perRestore > 0)
+			throw new AssertionError("Restoring allocates " + perRestore + " bytes each time");
+	}
+	
+	/** Games stopped at varied points of bot play, some clearing rows and some with garbage waiting. */
+	private static List<Game> states()
+	{
+		List<Game> states = new ArrayList<Game>();
+		
+		PlacementSearch search = new PlacementSearch(WeightedHeuristic.DEFAULT, null);
+		
+		Random rand = new Random(1);
+		
+		int clearing = 0, garbage = 0;
+		
+		for(PieceGenerator.Mode mode : PieceGenerator.Mode.values())
+		{
+			for(int seed = 0; seed < STATES_PER_MODE; seed++)
+			{
+				Game game = new Game(PieceGenerator.create(mode, seed));
+				
+				boolean wantClearing = seed % 3 == 0;
+				
+				Piece planned = null;
+				
+				// the bot clears rows, so some states are caught mid-clear
+				for(int step = 0, steps = 100 + rand.nextInt(3000); !game.isGameOver(); step++)
+				{
+					if(step >= steps && (!wantClearing || game.isClearingRows()))
+						break;
+					
+					Piece current = game.getCurrentPiece();
+					
+					if(current != planned && !game.isClearingRows())
+					{
+						planned = current;
+						
+						Placement placement = search.search(game.getBoard(), current, null);
+						
+						if(placement != null)
+							for(int move : placement.getMoves())
+								InputQueue.apply(game, move);
+					}
+					
+					if(seed % 3 == 1 && rand.nextInt(300) == 0)
+						game.addGarbage(1 + rand.nextInt(3), rand.nextInt(Board.COLS));
+					
+					game.update(BatchRunner.STEP);
+				}
+				
+				// garbage waits for the next lock, so add some to be saved with the game
+				if(seed % 3 == 2)
+					game.addGarbage(1 + rand.nextInt(4), rand.nextInt(Board.COLS));
+				
+				if(game.isClearingRows())
+					clearing++;
+				
+				if(game.getPendingGarbage() > 0)
+					garbage++;
+				
+				states.add(game);
+			}
+		}
+		
+		if(clearing == 0 || garbage == 0)
+			throw new AssertionError("States cover " + clearing + " clearing rows and " + garbage + " with garbage");
+		
+		return states;
+	}
+	
+	private static byte[] save(Game game)
+	{
+		// fresh, so bytes save() skips are zero on both sides of a comparison
+		ByteBuffer buffer = ByteBuffer.allocate(Game.STATE_SIZE);
+		
+		game.save(buffer);
+		
+		return buffer.array();
+	}
+	
+	private static String describe(Game game)
+	{
+		return game.getGenerator().getMode() + " seed " + game.getGenerator().getSeed() + ", score " +
+			   game.getScore() + (game.isClearingRows() ? ", clearing rows" : "") + ", " +
+			   game.getPendingGarbage() + " garbage waiting";
+	}
+}
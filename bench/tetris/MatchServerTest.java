@@ -0,0 +1,106 @@
+package tetris;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Plays a few short matches against a {@link MatchServer} over loopback
+ * and checks that every client saw its match end with both boards in sync
+ * with the server's, and that the server then shuts down cleanly. Run by
+ * {@code mvn test}.
+ */
+public class MatchServerTest
+{
+	private static final int MATCHES = 4;
+	
+	private static final long TIMEOUT_NANOS = 30 * 1000000000L;
+	
+	public void testMatchesOverLoopback() throws IOException, InterruptedException
+	{
+		MatchServer server = new MatchServer(new InetSocketAddress("localhost", 0), 1);
+		
+		final Throwable[] failure = new Throwable[1];
+		
+		Thread thread = new Thread(server, "Match Server");
+		
+		thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+			public void uncaughtException(Thread t, Throwable e) {
+				failure[0] = e;
+			}
+		});
+		
+		thread.start();
+		
+		MatchClient[] clients = new MatchClient[2 * MATCHES];
+		
+		for(int i = 0; i < clients.length; i++)
+			clients[i] = new MatchClient(new InetSocketAddress("localhost", server.getPort()));
+		
+		long start = System.nanoTime();
+		
+		int open = clients.length;
+		
+		boolean[] closed = new boolean[clients.length];
+		
+		// hard drop every step, so each game tops out within a few seconds
+		while(open > 0)
+		{
+			if(System.nanoTime() - start > TIMEOUT_NANOS)
+				throw new AssertionError(open + " clients still connected after " + TIMEOUT_NANOS / 1000000000L + " s");
+			
+			for(int i = 0; i < clients.length; i++)
+			{
+				if(closed[i])
+					continue;
+				
+				MatchClient client = clients[i];
+				
+				if(!client.receive())
+				{
+					client.close();
+					
+					closed[i] = true;
+					open--;
+				}
+				else if(client.getPlayer() >= 0 && !client.isOver())
+				{
+					client.send(InputQueue.HARD_DROP);
+					client.flush();
+				}
+			}
+			
+			Thread.sleep(BatchRunner.STEP_NANOS / 1000000);
+		}
+		
+		for(int i = 0; i < clients.length; i++)
+		{
+			if(!clients[i].isOver())
+				throw new AssertionError("Client " + i + " did not see its match end");
+			
+			if(!clients[i].isInSync())
+				throw new AssertionError("Client " + i + " has boards that differ from the server's");
+		}
+		
+		// the server drops a match once both its clients have gone
+		while(server.getMatchesPlayed() < MATCHES)
+		{
+			if(System.nanoTime() - start > TIMEOUT_NANOS)
+				throw new AssertionError("Server cleaned up " + server.getMatchesPlayed() + " of " + MATCHES +
+										 " matches");
+			
+			Thread.sleep(1);
+		}
+		
+		server.stop();
+		
+		thread.join(TIMEOUT_NANOS / 1000000);
+		
+		if(thread.isAlive())
+			throw new AssertionError("Server did not stop");
+		
+		if(failure[0] != null)
+			throw new AssertionError("Server failed", failure[0]);
+		
+		if(server.getMatchCount() != 0)
+			throw new AssertionError(server.getMatchCount() + " matches left on the server");
+	}
+}
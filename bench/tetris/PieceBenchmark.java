@@ -0,0 +1,84 @@
+package tetris;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PieceBenchmark
+{
+	@Param({Boards.EMPTY, Boards.HALF_FULL, Boards.NEAR_TOP_OUT, Boards.MULTI_LINE})
+	public String layout;
+	
+	private Board board;
+	
+	private Piece[] pieces, spawned;
+	
+	private Game game;
+	
+	@Setup
+	public void setup()
+	{
+		board = Boards.create(layout);
+		
+		game = new Game(0);
+		
+		// every type in every orientation, spread over the playfield
+		pieces = new Piece[Piece.TYPES * 4];
+		
+		for(int i = 0; i < pieces.length; i++)
+		{
+			int type = 1 + i / 4;
+			
+			pieces[i] = Piece.create(type, 1 + (i * 5) % (Board.ROWS - 3), 1 + i % (Board.COLS - 3));
+			
+			for(int r = 0; r < i % 4; r++)
+				pieces[i].rotateRight();
+		}
+		
+		// the same, at the top of the board as a bot drops them
+		spawned = new Piece[pieces.length];
+		
+		for(int i = 0; i < pieces.length; i++)
+		{
+			spawned[i] = pieces[i].copy();
+			spawned[i].moveTo(0, pieces[i].getCol(), pieces[i].getOrientation());
+		}
+	}
+	
+	// one collision check per piece; divide by 28 for a single check
+	@Benchmark
+	public void collides(Blackhole bh)
+	{
+		for(int i = 0; i < pieces.length; i++)
+			bh.consume(pieces[i].collides(board));
+	}
+	
+	// one landing row per piece; divide by 28 for a single drop
+	@Benchmark
+	public void landingRow(Blackhole bh)
+	{
+		for(int i = 0; i < spawned.length; i++)
+			bh.consume(spawned[i].getLandingRow(board));
+	}
+	
+	@Benchmark
+	public Piece randomPiece() {
+		return game.randomPiece();
+	}
+}
@@ -0,0 +1,98 @@
+package tetris;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Paints the playfield into an offscreen image, so it runs headless.
+ * Must be started from the project root to find tetrominoes.png.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark
+{
+	@Param({Boards.EMPTY, Boards.HALF_FULL, Boards.NEAR_TOP_OUT, Boards.MULTI_LINE})
+	public String layout;
+	
+	private Renderer renderer;
+	
+	private Snapshot snapshot, moved;
+	
+	private boolean flip;
+	
+	private BufferedImage offscr;
+	
+	private Graphics2D g;
+	
+	@Setup
+	public void setup() throws IOException
+	{
+		renderer = new Renderer();
+		
+		Game game = new Game(0);
+		game.getBoard().copyFrom(Boards.create(layout));
+		
+		snapshot = new Snapshot(game);
+		
+		game.update(1.0);
+		
+		moved = new Snapshot(game);
+		
+		offscr = new BufferedImage(Tetris.SCENE_WIDTH, Tetris.SCENE_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+		
+		g = offscr.createGraphics();
+	}
+	
+	@TearDown
+	public void tearDown() {
+		g.dispose();
+	}
+	
+	// nothing changed since the last frame
+	@Benchmark
+	public BufferedImage paint()
+	{
+		renderer.paint(g, snapshot);
+		
+		return offscr;
+	}
+	
+	// the piece fell one row
+	@Benchmark
+	public BufferedImage paintMove()
+	{
+		flip = !flip;
+		
+		renderer.paint(g, flip ? moved : snapshot);
+		
+		return offscr;
+	}
+	
+	// every cell repainted, as on the first frame
+	@Benchmark
+	public BufferedImage paintFull()
+	{
+		renderer.invalidate();
+		renderer.paint(g, snapshot);
+		
+		return offscr;
+	}
+}
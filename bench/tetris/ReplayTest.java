@@ -0,0 +1,173 @@
+package tetris;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Records games the way {@link Tetris#update} does, through an input
+ * queue, and checks that playing the recordings back ends each game the
+ * same way, and that a recording or archive index naming a generator
+ * that does not exist is rejected as corrupt. Run by {@code mvn test}.
+ */
+public class ReplayTest
+{
+	private static final int GAMES = 30;
+	
+	// steps before a game is given up on; random play tops out long before
+	private static final int MAX_STEPS = 60 * 60 * Updater.DEFAULT_UPDATE_RATE;
+	
+	// after the magic number and version
+	private static final int MODE_OFFSET = 5;
+	
+	/** Games that end on a hard drop, applied from the queue. */
+	public void testHardDropGameOver() throws IOException {
+		check(InputQueue.HARD_DROP + 1);
+	}
+	
+	/** Games that end when gravity locks a piece, with no hard drops. */
+	public void testGravityGameOver() throws IOException {
+		check(InputQueue.HARD_DROP);
+	}
+	
+	public void testUnknownModeInReplay() throws IOException
+	{
+		for(byte mode : new byte[] {(byte) PieceGenerator.MODES.length, -1})
+		{
+			byte[] file = record(new Game(PieceGenerator.create(PieceGenerator.Mode.BAG, 1)), 1,
+								 InputQueue.HARD_DROP + 1);
+			
+			file[MODE_OFFSET] = mode;
+			
+			try {
+				new ReplayReader(ByteBuffer.wrap(file));
+			} catch (IOException e) {
+				continue;
+			}
+			
+			throw new AssertionError("A replay with generator mode " + mode + " was read");
+		}
+	}
+	
+	public void testUnknownModeInArchiveIndex() throws IOException
+	{
+		Path dir = Files.createTempDirectory("replay-archive");
+		
+		try {
+			ReplayArchive archive = new ReplayArchive(dir);
+			
+			try {
+				archive.add(ByteBuffer.wrap(record(new Game(PieceGenerator.create(PieceGenerator.Mode.BAG, 1)), 1,
+												   InputQueue.HARD_DROP + 1)));
+			} finally {
+				archive.close();
+			}
+			
+			FileChannel index = FileChannel.open(dir.resolve("index.dat"), StandardOpenOption.WRITE);
+			
+			try {
+				index.write(ByteBuffer.wrap(new byte[] {(byte) PieceGenerator.MODES.length}), 32);
+			} finally {
+				index.close();
+			}
+			
+			archive = new ReplayArchive(dir);
+			
+			try {
+				archive.simulate(new Predicate<ReplayArchive.Entry>() {
+					public boolean test(ReplayArchive.Entry entry) {
+						return true;
+					}
+				}, new ReplayArchive.GameVisitor() {
+					public void visit(ReplayArchive.Entry entry, Game game) {}
+				});
+				
+				throw new AssertionError("An archive entry with an unknown generator mode was played");
+			} catch (IllegalStateException e) {
+				if(!(e.getCause() instanceof IOException))
+					throw new AssertionError("Corrupt entry failed with " + e.getCause(), e);
+			} finally {
+				archive.close();
+			}
+		} finally {
+			Stream<Path> files = Files.walk(dir);
+			
+			try {
+				files.sorted(Comparator.reverseOrder()).forEach(new Consumer<Path>() {
+					public void accept(Path path)
+					{
+						try {
+							Files.delete(path);
+						} catch (IOException e) {
+							// left for the OS to clean up
+						}
+					}
+				});
+			} finally {
+				files.close();
+			}
+		}
+	}
+	
+	private void check(int actions) throws IOException
+	{
+		for(long seed = 1; seed <= GAMES; seed++)
+		{
+			Game live = new Game(PieceGenerator.create(PieceGenerator.Mode.BAG, seed));
+			
+			byte[] file = record(live, seed, actions);
+			
+			if(!live.isGameOver())
+				throw new AssertionError("Seed " + seed + ": the live game did not end");
+			
+			ReplayReader reader = new ReplayReader(ByteBuffer.wrap(file));
+			
+			Game played = reader.newGame();
+			
+			reader.play(played, false);
+			
+			if(!played.isGameOver())
+				throw new AssertionError("Seed " + seed + ": the replay did not end in game over");
+			
+			if(played.getScore() != live.getScore())
+				throw new AssertionError("Seed " + seed + ": replay scored " + played.getScore() + ", live "
+										 + live.getScore());
+		}
+	}
+	
+	/** Plays the game randomly until it ends, recording it as {@link Tetris#update} does. */
+	private static byte[] record(Game live, long seed, int actions) throws IOException
+	{
+		ByteArrayOutputStream file = new ByteArrayOutputStream();
+		
+		ReplayWriter replay = new ReplayWriter(Channels.newChannel(file), live, BatchRunner.STEP_NANOS);
+		
+		InputQueue input = new InputQueue();
+		
+		Random rand = new Random(seed);
+		
+		for(int step = 0; !live.isGameOver() && step < MAX_STEPS; step++)
+		{
+			if(rand.nextInt(8) == 0)
+				input.offer(rand.nextInt(actions));
+			
+			// as in Tetris.update
+			input.drainTo(live, replay);
+			
+			live.update(BatchRunner.STEP);
+			
+			replay.step(live);
+		}
+		
+		return file.toByteArray();
+	}
+}
@@ -0,0 +1,58 @@
+package tetris;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One whole placement search for a T at the spawn point, alone and with
+ * an S as the lookahead piece. The search uses the common fork-join
+ * pool, so results scale with the machine's core count.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark
+{
+	@Param({Boards.EMPTY, Boards.HALF_FULL, Boards.NEAR_TOP_OUT, Boards.MULTI_LINE})
+	public String layout;
+	
+	private Board board;
+	
+	private Piece current, next;
+	
+	private PlacementSearch search;
+	
+	@Setup
+	public void setup()
+	{
+		board = Boards.create(layout);
+		
+		current = Piece.create(Piece.T_TYPE, Game.SPAWN_ROW, Game.SPAWN_COL);
+		next = Piece.create(Piece.S_TYPE, Game.SPAWN_ROW, Game.SPAWN_COL);
+		
+		search = new PlacementSearch();
+	}
+	
+	@Benchmark
+	public Placement search() {
+		return search.search(board, current, null);
+	}
+	
+	@Benchmark
+	public Placement searchWithLookahead() {
+		return search.search(board, current, next);
+	}
+}
@@ -0,0 +1,92 @@
+package tetris;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One UI frame as the playfield canvas draws it: cells fitted to the
+ * canvas, the playfield updated and presented centred. Frames go to an
+ * offscreen image about the size of the canvas in the default window,
+ * so no window is opened and it runs headless. Must be started from the
+ * project root to find tetrominoes.png.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UIBenchmark
+{
+	// not the board's aspect ratio, so the margin is filled too
+	private static final int CANVAS_WIDTH = 360, CANVAS_HEIGHT = 610;
+	
+	private Renderer renderer;
+	
+	private Snapshot snapshot, moved;
+	
+	private boolean flip;
+	
+	private BufferedImage canvas;
+	
+	private Graphics2D g;
+	
+	@Setup
+	public void setup() throws IOException
+	{
+		renderer = new Renderer();
+		
+		Game game = new Game(0);
+		
+		snapshot = new Snapshot(game);
+		
+		game.update(1.0);
+		
+		moved = new Snapshot(game);
+		
+		canvas = new BufferedImage(CANVAS_WIDTH, CANVAS_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+		
+		g = canvas.createGraphics();
+	}
+	
+	@TearDown
+	public void tearDown() {
+		g.dispose();
+	}
+	
+	// nothing changed, so the frame is not presented
+	@Benchmark
+	public boolean update()
+	{
+		renderer.fitTo(CANVAS_WIDTH, CANVAS_HEIGHT);
+		
+		return renderer.update(snapshot);
+	}
+	
+	// the piece fell one row
+	@Benchmark
+	public BufferedImage updateMove()
+	{
+		flip = !flip;
+		
+		renderer.fitTo(CANVAS_WIDTH, CANVAS_HEIGHT);
+		
+		if(renderer.update(flip ? moved : snapshot))
+			renderer.present(g, CANVAS_WIDTH, CANVAS_HEIGHT);
+		
+		return canvas;
+	}
+}
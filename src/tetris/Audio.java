@@ -1,54 +1,124 @@
 package tetris;
-import java.io.File;
-import java.net.URL;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.HashMap;
+import java.util.Map;
 
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.Clip;
+import javax.sound.sampled.LineUnavailableException;
 
-public class Audio 
+/**
+ * Plays the game's sounds through a single {@link AudioMixer}. Sounds
+ * are decoded once and cached; looping sounds play on the music channel
+ * and everything else on the effects channel.
+ * <p>
+ * The mixer buffer size can be set with the tetris.audio.buffer system
+ * property (in frames). If no sound card is available the mixer runs
+ * against a {@link AudioOutput.NullOutput}.
+ */
+public class Audio
 {
-	private static ExecutorService threadPool = Executors.newCachedThreadPool();
+	private static final int MAX_VOICES_PER_SOUND = 4;
+	
+	private static volatile AudioMixer mixer;
+	
+	private static Map<String, AudioMixer.Sample> samples = new HashMap<String, AudioMixer.Sample>();
+	
+	/** Replaces the default mixer, e.g. to use a different output or buffer size. */
+	public static synchronized void setMixer(AudioMixer mixer)
+	{
+		if(Audio.mixer != null)
+			Audio.mixer.stop();
+		
+		Audio.mixer = mixer;
+	}
+	
+	public static synchronized AudioMixer getMixer()
+	{
+		if(mixer == null)
+		{
+			int bufferFrames = Integer.getInteger("tetris.audio.buffer", AudioMixer.DEFAULT_BUFFER_FRAMES);
+			
+			mixer = new AudioMixer(new AudioOutput.LineOutput(), bufferFrames);
+			
+			try {
+				mixer.start();
+			} catch (LineUnavailableException|IllegalArgumentException e) {
+				System.err.println("No audio line available, sound is disabled: " + e);
+				
+				mixer = new AudioMixer(new AudioOutput.NullOutput(), bufferFrames);
+				
+				startQuietly(mixer);
+			}
+		}
+		
+		return mixer;
+	}
+	
+	private static void startQuietly(AudioMixer mixer)
+	{
+		try {
+			mixer.start();
+		} catch (LineUnavailableException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	public static void load(String... urls)
+	{
+		for(String url : urls)
+			getSample(url);
+	}
 	
 	public static void play(String url, boolean loop)
 	{
-		threadPool.execute(new AudioThread(url, loop));
+		getMixer().play(getSample(url), loop ? AudioMixer.MUSIC : AudioMixer.EFFECTS, loop);
 	}
 	
-	private static class AudioThread implements Runnable
+	/** Voices playing in the last mixed buffer, without starting a mixer. */
+	public static int getActiveVoices()
 	{
-		private String url;
+		AudioMixer current = mixer;
 		
-		private boolean loop;
+		return current == null ? 0 : current.getActiveVoices();
+	}
+	
+	/** The mixer's measured play-to-output latency at the given percentile, without starting a mixer. */
+	public static long getLatencyPercentile(double fraction)
+	{
+		AudioMixer current = mixer;
 		
-		public AudioThread(String url, boolean loop)
-		{
-			this.url = url;
-			this.loop = loop;
-		}
+		return current == null ? 0 : current.getLatency().getPercentile(fraction);
+	}
+	
+	public static void setVolume(int channel, float volume) {
+		getMixer().setVolume(channel, volume);
+	}
+	
+	public static synchronized void close()
+	{
+		if(mixer != null)
+			mixer.stop();
+		
+		mixer = null;
+	}
+	
+	private static synchronized AudioMixer.Sample getSample(String url)
+	{
+		AudioMixer.Sample sample = samples.get(url);
 		
-		public void run()
+		if(sample == null)
 		{
-			 try {
-		         // Open an audio input stream.
-		         URL url = new File(this.url).toURI().toURL();
-				         
-		         AudioInputStream audioIn = AudioSystem.getAudioInputStream(url);
-		         // Get a sound clip resource.
-		         Clip clip = AudioSystem.getClip();
-		         // Open audio clip and load samples from the audio input stream.
-		         clip.open(audioIn);
-		         
-		         if(loop)
-		        	 clip.loop(Clip.LOOP_CONTINUOUSLY);
-		         
-		         clip.start();
-			 }
-			 catch(Exception e) {
-				 e.printStackTrace();
-			 }
+			try {
+				sample = AudioMixer.load(url, MAX_VOICES_PER_SOUND);
+			}
+			catch(Exception e) {
+				e.printStackTrace();
+				
+				// remember the failure so the file is not retried on every play
+				sample = new AudioMixer.Sample(new short[0], 0);
+			}
+			
+			samples.put(url, sample);
 		}
+		
+		return sample;
 	}
 }
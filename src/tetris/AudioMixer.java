@@ -0,0 +1,435 @@
+package tetris;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * Software mixer that sums every playing sound into one output line on
+ * a single thread. When all voices are busy the oldest non-looping voice
+ * is stolen.
+ * <p>
+ * {@link #play}, {@link #stopAll} and {@link #setVolume} only queue a
+ * command in a ring buffer, which the mixer drains before each buffer it
+ * mixes, so voices and volumes belong to the mixer thread alone and
+ * mixing never waits on a lock. Threads queueing commands take turns on
+ * a lock of their own that the mixer never touches.
+ */
+public class AudioMixer implements Runnable
+{
+	public static final AudioFormat FORMAT = new AudioFormat(44100, 16, 2, true, false);
+	
+	public static final int EFFECTS = 0, MUSIC = 1, CHANNELS = 2;
+	
+	public static final int DEFAULT_BUFFER_FRAMES = 512;
+	
+	public static final int MAX_VOICES = 16;
+	
+	/** Commands that can wait for the mixer at once, a power of two; more are dropped. */
+	public static final int COMMAND_CAPACITY = 64;
+	
+	private static final int PLAY = 0, STOP_ALL = 1, SET_VOLUME = 2;
+	
+	private static final int FRAME_SIZE = 4;
+	
+	private AudioOutput output;
+	
+	private int bufferFrames;
+	
+	private Voice[] voices;
+	
+	private long voiceClock;
+	
+	private float[] volumes;
+	
+	private int[] mix;
+	
+	private byte[] out;
+	
+	private Thread thread;
+	
+	private volatile boolean running;
+	
+	private volatile int activeVoices;
+	
+	// one slot per queued command, in parallel arrays as InputQueue does
+	private final int[] commands, channels;
+	
+	private final Sample[] samples;
+	
+	private final boolean[] loops;
+	
+	private final float[] levels;
+	
+	private final long[] issued;
+	
+	private final int mask;
+	
+	// next slot to write, only advanced by a thread holding producerLock
+	private final AtomicLong tail = new AtomicLong();
+	
+	// next slot to read, only advanced by the mixer
+	private final AtomicLong head = new AtomicLong();
+	
+	private final Object producerLock = new Object();
+	
+	// issue times of the sounds started in the buffer being mixed, recorded once it is written
+	private final long[] started = new long[COMMAND_CAPACITY];
+	
+	private int startedCount;
+	
+	private final LatencyHistogram latency = new LatencyHistogram();
+	
+	public AudioMixer(AudioOutput output, int bufferFrames)
+	{
+		this.output = output;
+		this.bufferFrames = bufferFrames;
+		
+		voices = new Voice[MAX_VOICES];
+		
+		for(int i = 0; i < voices.length; i++)
+			voices[i] = new Voice();
+		
+		volumes = new float[CHANNELS];
+		
+		Arrays.fill(volumes, 1);
+		
+		mix = new int[bufferFrames * 2];
+		
+		out = new byte[bufferFrames * FRAME_SIZE];
+		
+		commands = new int[COMMAND_CAPACITY];
+		channels = new int[COMMAND_CAPACITY];
+		samples = new Sample[COMMAND_CAPACITY];
+		loops = new boolean[COMMAND_CAPACITY];
+		levels = new float[COMMAND_CAPACITY];
+		issued = new long[COMMAND_CAPACITY];
+		
+		mask = COMMAND_CAPACITY - 1;
+	}
+	
+	public void start() throws LineUnavailableException
+	{
+		if(running)
+			return;
+		
+		output.open(FORMAT, 2 * bufferFrames * FRAME_SIZE);
+		
+		running = true;
+		
+		thread = new Thread(this, "Audio Mixer");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+	}
+	
+	public void stop()
+	{
+		if(!running)
+			return;
+		
+		running = false;
+		
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		output.close();
+	}
+	
+	/**
+	 * Decodes a sound file into a sample in the mixer's format. At most
+	 * maxVoices copies of the sample play at once.
+	 */
+	public static Sample load(String url, int maxVoices) throws IOException, UnsupportedAudioFileException
+	{
+		AudioInputStream audioIn = AudioSystem.getAudioInputStream(new File(url));
+		
+		AudioFormat format = audioIn.getFormat(),
+					pcm = new AudioFormat(format.getSampleRate(), 16, format.getChannels(), true, false);
+		
+		if(!format.matches(pcm))
+			audioIn = AudioSystem.getAudioInputStream(pcm, audioIn);
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		
+		byte[] buffer = new byte[8192];
+		
+		int read;
+		
+		while((read = audioIn.read(buffer)) > 0)
+			bytes.write(buffer, 0, read);
+		
+		audioIn.close();
+		
+		byte[] data = bytes.toByteArray();
+		
+		int channels = pcm.getChannels(),
+			frames = data.length / (2 * channels);
+		
+		// resample to the mixer's rate and spread mono across both sides
+		double step = pcm.getSampleRate() / FORMAT.getSampleRate();
+		
+		int outFrames = (int) (frames / step);
+		
+		short[] samples = new short[outFrames * 2];
+		
+		for(int i = 0; i < outFrames; i++)
+		{
+			int frame = (int) (i * step);
+			
+			for(int c = 0; c < 2; c++)
+			{
+				int src = (frame * channels + Math.min(c, channels - 1)) * 2;
+				
+				samples[2 * i + c] = (short) ((data[src] & 0xff) | (data[src + 1] << 8));
+			}
+		}
+		
+		return new Sample(samples, maxVoices);
+	}
+	
+	/**
+	 * Starts the sample on the next buffer mixed. Returns false if too
+	 * many commands are already waiting for the mixer.
+	 */
+	public boolean play(Sample sample, int channel, boolean loop)
+	{
+		if(sample.data.length == 0)
+			return true;
+		
+		return offer(PLAY, sample, channel, loop, 0);
+	}
+	
+	public boolean stopAll(int channel) {
+		return offer(STOP_ALL, null, channel, false, 0);
+	}
+	
+	public boolean setVolume(int channel, float volume) {
+		return offer(SET_VOLUME, null, channel, false, volume);
+	}
+	
+	private boolean offer(int command, Sample sample, int channel, boolean loop, float level)
+	{
+		synchronized(producerLock)
+		{
+			long t = tail.get();
+			
+			if(t - head.get() > mask)
+				return false;
+			
+			int i = (int) t & mask;
+			
+			commands[i] = command;
+			samples[i] = sample;
+			channels[i] = channel;
+			loops[i] = loop;
+			levels[i] = level;
+			issued[i] = System.nanoTime();
+			
+			// publishes the slot contents before the new tail
+			tail.lazySet(t + 1);
+		}
+		
+		return true;
+	}
+	
+	public int getActiveVoices() {
+		return activeVoices;
+	}
+	
+	public int getBufferFrames() {
+		return bufferFrames;
+	}
+	
+	/**
+	 * Measured time from play() until the buffer holding the sound's
+	 * first frame has been taken by the output. The output's own buffer,
+	 * two mixer buffers at most, still plays out after that.
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+	
+	public void run()
+	{
+		while(running)
+		{
+			mix();
+			
+			output.write(out, 0, out.length);
+			
+			long now = System.nanoTime();
+			
+			for(int i = 0; i < startedCount; i++)
+				latency.record(now - started[i]);
+			
+			startedCount = 0;
+		}
+	}
+	
+	/** Applies every queued command, oldest first. Mixer thread only. */
+	private void drainCommands()
+	{
+		long h = head.get(),
+			 t = tail.get();
+		
+		for(; h != t; h++)
+		{
+			int i = (int) h & mask;
+			
+			switch(commands[i])
+			{
+				case PLAY:
+					if(start(samples[i], channels[i], loops[i]))
+						started[startedCount++] = issued[i];
+					break;
+				
+				case STOP_ALL:
+					for(Voice voice : voices)
+						if(voice.channel == channels[i])
+							voice.sample = null;
+					break;
+				
+				case SET_VOLUME:
+					volumes[channels[i]] = levels[i];
+					break;
+			}
+		}
+		
+		head.lazySet(h);
+	}
+	
+	/** Puts the sample on a free or stolen voice, or returns false if every voice is looping. */
+	private boolean start(Sample sample, int channel, boolean loop)
+	{
+		Voice voice = null,
+			  oldestOfSample = null,
+			  oldest = null;
+		
+		int playing = 0;
+		
+		for(Voice v : voices)
+		{
+			if(v.sample == null)
+			{
+				if(voice == null)
+					voice = v;
+				
+				continue;
+			}
+			
+			if(v.sample == sample)
+			{
+				playing++;
+				
+				if(oldestOfSample == null || v.started < oldestOfSample.started)
+					oldestOfSample = v;
+			}
+			
+			if(!v.loop && (oldest == null || v.started < oldest.started))
+				oldest = v;
+		}
+		
+		if(playing >= sample.maxVoices)
+			voice = oldestOfSample;
+		else if(voice == null)
+			voice = oldest;
+		
+		if(voice == null)
+			return false;
+		
+		voice.sample = sample;
+		voice.position = 0;
+		voice.channel = channel;
+		voice.loop = loop;
+		voice.started = voiceClock++;
+		
+		return true;
+	}
+	
+	private void mix()
+	{
+		drainCommands();
+		
+		Arrays.fill(mix, 0);
+		
+		int active = 0;
+		
+		for(Voice voice : voices)
+		{
+			if(voice.sample == null)
+				continue;
+			
+			active++;
+			
+			short[] data = voice.sample.data;
+			
+			float volume = volumes[voice.channel];
+			
+			int pos = voice.position;
+			
+			for(int i = 0; i < mix.length; i++)
+			{
+				if(pos == data.length)
+				{
+					if(!voice.loop)
+					{
+						voice.sample = null;
+						break;
+					}
+					
+					pos = 0;
+				}
+				
+				mix[i] += (int) (data[pos++] * volume);
+			}
+			
+			voice.position = pos;
+		}
+		
+		activeVoices = active;
+		
+		for(int i = 0; i < mix.length; i++)
+		{
+			int s = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+			
+			out[2 * i] = (byte) s;
+			out[2 * i + 1] = (byte) (s >> 8);
+		}
+	}
+	
+	/** Decoded sound in {@link #FORMAT}, interleaved left/right. */
+	public static class Sample
+	{
+		private short[] data;
+		
+		private int maxVoices;
+		
+		public Sample(short[] data, int maxVoices)
+		{
+			this.data = data;
+			this.maxVoices = maxVoices;
+		}
+	}
+	
+	private static class Voice
+	{
+		private Sample sample;
+		
+		private int position, channel;
+		
+		private boolean loop;
+		
+		private long started;
+	}
+}
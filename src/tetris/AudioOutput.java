@@ -0,0 +1,86 @@
+package tetris;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Destination for the mixed audio stream. {@link #write} is expected to
+ * block until the device can take more data, which is what paces the
+ * {@link AudioMixer} thread.
+ */
+public interface AudioOutput
+{
+	public void open(AudioFormat format, int bufferBytes) throws LineUnavailableException;
+	
+	public void write(byte[] data, int off, int len);
+	
+	public void close();
+	
+	/** Plays through the default sound card. */
+	public static class LineOutput implements AudioOutput
+	{
+		private SourceDataLine line;
+		
+		public void open(AudioFormat format, int bufferBytes) throws LineUnavailableException
+		{
+			line = AudioSystem.getSourceDataLine(format);
+			
+			line.open(format, bufferBytes);
+			line.start();
+		}
+		
+		public void write(byte[] data, int off, int len) {
+			line.write(data, off, len);
+		}
+		
+		public void close()
+		{
+			line.stop();
+			line.close();
+		}
+	}
+	
+	/**
+	 * Discards everything, but consumes it at the format's real-time rate
+	 * so the mixer behaves as it would against a sound card. Used when no
+	 * audio device is available and for testing headless.
+	 */
+	public static class NullOutput implements AudioOutput
+	{
+		private double nanosPerByte;
+		
+		private long deadline;
+		
+		private volatile long bytesWritten;
+		
+		public void open(AudioFormat format, int bufferBytes)
+		{
+			nanosPerByte = 1.0e9 / (format.getFrameRate() * format.getFrameSize());
+			
+			deadline = System.nanoTime();
+		}
+		
+		public void write(byte[] data, int off, int len)
+		{
+			bytesWritten += len;
+			
+			deadline += (long) (len * nanosPerByte);
+			
+			long now = System.nanoTime();
+			
+			if(deadline - now > 0)
+				LockSupport.parkNanos(deadline - now);
+			else
+				deadline = now;
+		}
+		
+		public void close() {}
+		
+		public long getBytesWritten() {
+			return bytesWritten;
+		}
+	}
+}
@@ -0,0 +1,353 @@
+package tetris;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Plays many seeded games headless and in parallel, for tuning gravity
+ * and scoring without playing by hand. Every game owns its own
+ * {@link Game}, random policy and {@link PlacementSearch}; the only thing
+ * games share is the immutable heuristic. Finished games are handed back
+ * as immutable results and aggregated on the calling thread.
+ * <p>
+ * Usage: {@code java -jar tetris-clone.jar batch [-games N] [-threads N]
+ * [-seed N] [-policy bot|random] [-pieces uniform|bag|history] [-lookahead]
+ * [-minutes N] [-record dir]}
+ */
+public class BatchRunner
+{
+	public enum Policy {BOT, RANDOM}
+	
+	public static final long STEP_NANOS = 1000000000L / Updater.DEFAULT_UPDATE_RATE;
+	
+	// the same step, to the bit, as the live Updater takes
+	public static final double STEP = STEP_NANOS / 1.0e9;
+	
+	// the random policy issues a command on about one step in this many
+	private static final int RANDOM_INPUT_PERIOD = 8;
+	
+	private static final long PROGRESS_NANOS = 1000000000L;
+	
+	private int games = 100,
+				threads = Runtime.getRuntime().availableProcessors();
+	
+	private long seed = 1;
+	
+	private Policy policy = Policy.BOT;
+	
+	private PieceGenerator.Mode pieces = PieceGenerator.Mode.UNIFORM;
+	
+	private boolean lookahead;
+	
+	// where to save a replay of every game, or null
+	private File recordDir;
+	
+	// bots can play forever, so every game is cut off after this long
+	private double maxTime = 10 * 60;
+	
+	public static void main(String[] args) throws InterruptedException, ExecutionException
+	{
+		BatchRunner runner = new BatchRunner();
+		
+		for(int i = 0; i < args.length; i++)
+		{
+			String arg = args[i];
+			
+			if(arg.equals("-games"))
+				runner.games = Integer.parseInt(args[++i]);
+			else if(arg.equals("-threads"))
+				runner.threads = Integer.parseInt(args[++i]);
+			else if(arg.equals("-seed"))
+				runner.seed = Long.parseLong(args[++i]);
+			else if(arg.equals("-policy"))
+				runner.policy = Policy.valueOf(args[++i].toUpperCase());
+			else if(arg.equals("-pieces"))
+				runner.pieces = PieceGenerator.Mode.valueOf(args[++i].toUpperCase());
+			else if(arg.equals("-record"))
+				runner.recordDir = new File(args[++i]);
+			else if(arg.equals("-lookahead"))
+				runner.lookahead = true;
+			else if(arg.equals("-minutes"))
+				runner.maxTime = 60 * Double.parseDouble(args[++i]);
+			else
+				throw new IllegalArgumentException("Unknown option: " + arg);
+		}
+		
+		if(runner.games < 1)
+			throw new IllegalArgumentException("-games must be at least 1: " + runner.games);
+		
+		runner.run(System.out);
+	}
+	
+	public void run(PrintStream out) throws InterruptedException, ExecutionException
+	{
+		out.printf("%d games, %s policy%s, %s pieces, %d threads, seed %d%n", games,
+				   policy.name().toLowerCase(), lookahead ? " with lookahead" : "",
+				   pieces.name().toLowerCase(), threads, seed);
+		
+		ExecutorService executor = Executors.newWorkStealingPool(threads);
+		
+		CompletionService<Result> completion = new ExecutorCompletionService<Result>(executor);
+		
+		// every game gets its own generator, split off one master sequence
+		PieceGenerator master = PieceGenerator.create(pieces, seed);
+		
+		for(int i = 0; i < games; i++)
+			completion.submit(new Play(master.split(), policy, lookahead, maxTime, recordDir));
+		
+		Stats stats = new Stats(games);
+		
+		long start = System.nanoTime(),
+			 lastProgress = start;
+		
+		try {
+			for(int i = 0; i < games; i++)
+			{
+				stats.add(completion.take().get());
+				
+				long now = System.nanoTime();
+				
+				if(now - lastProgress >= PROGRESS_NANOS || i == games - 1)
+				{
+					lastProgress = now;
+					
+					stats.printProgress(out, now - start);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		
+		stats.printSummary(out, System.nanoTime() - start);
+	}
+	
+	/** One finished game. */
+	public static final class Result
+	{
+		private final long seed;
+		
+		private final int score, lines, ticks;
+		
+		private final int[] pieces;
+		
+		private final boolean toppedOut;
+		
+		public Result(long seed, int score, int lines, int ticks, int[] pieces, boolean toppedOut)
+		{
+			this.seed = seed;
+			this.score = score;
+			this.lines = lines;
+			this.ticks = ticks;
+			this.pieces = pieces;
+			this.toppedOut = toppedOut;
+		}
+		
+		public long getSeed() {
+			return seed;
+		}
+		
+		public int getScore() {
+			return score;
+		}
+		
+		public int getLines() {
+			return lines;
+		}
+		
+		public int getTicks() {
+			return ticks;
+		}
+		
+		/** Pieces locked, indexed by piece type. */
+		public int getPieces(byte type) {
+			return pieces[type];
+		}
+		
+		public boolean isToppedOut() {
+			return toppedOut;
+		}
+	}
+	
+	/** Plays one game to the end, or to the time limit, on the calling thread. */
+	private static class Play extends GameAdapter implements Callable<Result>
+	{
+		private PieceGenerator generator;
+		
+		private Policy policy;
+		
+		private boolean lookahead;
+		
+		private double maxTime;
+		
+		private File recordDir;
+		
+		private Game game;
+		
+		private int lines;
+		
+		private int[] pieces = new int[Piece.TYPES + 1];
+		
+		public Play(PieceGenerator generator, Policy policy, boolean lookahead, double maxTime, File recordDir)
+		{
+			this.recordDir = recordDir;
+			this.generator = generator;
+			this.policy = policy;
+			this.lookahead = lookahead;
+			this.maxTime = maxTime;
+		}
+		
+		public Result call() throws IOException
+		{
+			game = new Game(generator);
+			
+			game.addGameListener(this);
+			
+			ReplayWriter replay = null;
+			
+			if(recordDir != null)
+				replay = new ReplayWriter(new File(recordDir, Long.toHexString(generator.getSeed()) + ".replay").toPath(),
+										  game, STEP_NANOS);
+			
+			// inputs are drawn from a stream of their own, so changing the
+			// policy does not change the pieces a seed deals
+			Random rand = new Random(~generator.getSeed());
+			
+			PlacementSearch search = new PlacementSearch(WeightedHeuristic.DEFAULT, null);
+			
+			Piece planned = null;
+			
+			int ticks = 0;
+			
+			while(!game.isGameOver() && game.getTime() < maxTime)
+			{
+				if(policy == Policy.BOT)
+				{
+					Piece current = game.getCurrentPiece();
+					
+					if(current != planned && !game.isClearingRows())
+					{
+						planned = current;
+						
+						Placement placement = search.search(game.getBoard(), current,
+															lookahead ? game.getNextPiece() : null);
+						
+						if(placement != null)
+							for(int move : placement.getMoves())
+								apply(move, replay);
+					}
+				}
+				else if(rand.nextInt(RANDOM_INPUT_PERIOD) == 0)
+					apply(rand.nextInt(InputQueue.HARD_DROP + 1), replay);
+				
+				game.update(STEP);
+				
+				if(replay != null)
+					replay.step();
+				
+				ticks++;
+			}
+			
+			if(replay != null)
+				replay.close();
+			
+			return new Result(generator.getSeed(), game.getScore(), lines, ticks, pieces, game.isGameOver());
+		}
+		
+		private void apply(int action, ReplayWriter replay)
+		{
+			InputQueue.apply(game, action);
+			
+			if(replay != null)
+				replay.record(action);
+		}
+		
+		public void pieceLocked(boolean hardDrop) {
+			pieces[game.getCurrentPiece().getType()]++;
+		}
+		
+		public void rowsRemoved(int count) {
+			lines += count;
+		}
+	}
+	
+	/** Running totals, only touched by the thread collecting results. */
+	private static class Stats
+	{
+		private int[] scores;
+		
+		private int count, toppedOut;
+		
+		private long lines, ticks;
+		
+		private long[] pieces = new long[Piece.TYPES + 1];
+		
+		public Stats(int games) {
+			scores = new int[games];
+		}
+		
+		public void add(Result result)
+		{
+			scores[count++] = result.getScore();
+			
+			lines += result.getLines();
+			ticks += result.getTicks();
+			
+			for(byte type = 1; type <= Piece.TYPES; type++)
+				pieces[type] += result.getPieces(type);
+			
+			if(result.isToppedOut())
+				toppedOut++;
+		}
+		
+		public void printProgress(PrintStream out, long nanos)
+		{
+			long total = 0;
+			
+			for(int i = 0; i < count; i++)
+				total += scores[i];
+			
+			out.printf("%d/%d games, mean score %.0f, %.0f steps/s%n", count, scores.length,
+					   (double) total / count, ticks * 1.0e9 / nanos);
+		}
+		
+		public void printSummary(PrintStream out, long nanos)
+		{
+			int[] sorted = Arrays.copyOf(scores, count);
+			
+			Arrays.sort(sorted);
+			
+			long pieceTotal = 0;
+			
+			for(long n : pieces)
+				pieceTotal += n;
+			
+			out.println();
+			out.printf("score     min %d, p10 %d, p50 %d, p90 %d, max %d%n", sorted[0],
+					   percentile(sorted, 0.10), percentile(sorted, 0.50), percentile(sorted, 0.90),
+					   sorted[count - 1]);
+			out.printf("lines     %.1f per game%n", (double) lines / count);
+			out.printf("length    %.1f s, %.0f pieces per game; %d of %d topped out%n",
+					   ticks * STEP / count, (double) pieceTotal / count, toppedOut, count);
+			
+			out.print("pieces   ");
+			
+			for(byte type = 1; type <= Piece.TYPES; type++)
+				out.printf(" %c %.1f%%", "?IOTSZJL".charAt(type), 100.0 * pieces[type] / Math.max(1, pieceTotal));
+			
+			out.println();
+			out.printf("speed     %.0f steps/s over %.1f s%n", ticks * 1.0e9 / nanos, nanos / 1.0e9);
+		}
+		
+		private static int percentile(int[] sorted, double fraction) {
+			return sorted[(int) Math.min(sorted.length - 1, Math.floor(fraction * sorted.length))];
+		}
+	}
+}
@@ -0,0 +1,289 @@
+package tetris;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Playfield stored as one bitmask per row, bit {@code col} set when
+ * the cell is occupied. Piece colours live in a separate byte plane
+ * that is only read when rendering. Every row written to is marked as
+ * changed until {@link #clearChangedRows()}, so observers only need to
+ * look at those rows.
+ * <p>
+ * The board also keeps the top filled row of every column, updated as
+ * cells are filled and rows removed, so where a piece lands is a lookup
+ * per cell rather than a collision check per row.
+ */
+public class Board
+{
+	public static final int COLS = 11, ROWS = 26;
+	
+	public static final int FULL_ROW = (1 << COLS) - 1;
+	
+	private static final int ALL_ROWS = (1 << ROWS) - 1;
+	
+	public static final byte EMPTY = 0;
+	
+	/** Colour of garbage rows sent by an opponent. */
+	public static final byte GARBAGE = Piece.TYPES + 1;
+	
+	/** Bytes written by {@link #save}. */
+	public static final int STATE_SIZE = ROWS * 2 + ROWS * COLS;
+	
+	// where the colours start in the saved state, after a short per row
+	static final int COLORS_OFFSET = ROWS * 2;
+	
+	private short[] rows;
+	
+	private byte[] colors;
+	
+	// bit n set when row n was written to
+	private int changedRows;
+	
+	// the top filled row of each column, or ROWS when it is empty
+	private byte[] tops;
+	
+	public Board()
+	{
+		rows = new short[ROWS];
+		
+		colors = new byte[ROWS * COLS];
+		
+		tops = new byte[COLS];
+		
+		Arrays.fill(tops, (byte) ROWS);
+	}
+	
+	public boolean isFilled(int row, int col) {
+		return (rows[row] & (1 << col)) != 0;
+	}
+	
+	public boolean isFilledRow(int row) {
+		return rows[row] == FULL_ROW;
+	}
+	
+	public int getRow(int row) {
+		return rows[row];
+	}
+	
+	public byte getColor(int row, int col) {
+		return colors[row * COLS + col];
+	}
+	
+	public void fill(int row, int col, byte color)
+	{
+		rows[row] |= 1 << col;
+		
+		colors[row * COLS + col] = color;
+		
+		changedRows |= 1 << row;
+		
+		if(row < tops[col])
+			tops[col] = (byte) row;
+	}
+	
+	public void clear(int row, int col)
+	{
+		rows[row] &= ~(1 << col);
+		
+		colors[row * COLS + col] = EMPTY;
+		
+		changedRows |= 1 << row;
+		
+		if(row == tops[col])
+			tops[col] = (byte) topBelow(col, row + 1);
+	}
+	
+	public void clear()
+	{
+		Arrays.fill(rows, (short) 0);
+		Arrays.fill(colors, EMPTY);
+		Arrays.fill(tops, (byte) ROWS);
+		
+		changedRows = ALL_ROWS;
+	}
+	
+	public void copyFrom(Board other)
+	{
+		System.arraycopy(other.rows, 0, rows, 0, ROWS);
+		System.arraycopy(other.colors, 0, colors, 0, colors.length);
+		System.arraycopy(other.tops, 0, tops, 0, COLS);
+		
+		changedRows = ALL_ROWS;
+	}
+	
+	public void save(ByteBuffer buffer)
+	{
+		for(short row : rows)
+			buffer.putShort(row);
+		
+		buffer.put(colors);
+	}
+	
+	public void restore(ByteBuffer buffer)
+	{
+		for(int row = 0; row < ROWS; row++)
+			rows[row] = buffer.getShort();
+		
+		buffer.get(colors);
+		
+		changedRows = ALL_ROWS;
+		
+		findTops();
+	}
+	
+	/**
+	 * Removes the given row, shifting every row above it down by one
+	 * and leaving an empty row at the top.
+	 */
+	public void dropRow(int row)
+	{
+		System.arraycopy(rows, 0, rows, 1, row);
+		System.arraycopy(colors, 0, colors, COLS, row * COLS);
+		
+		rows[0] = 0;
+		Arrays.fill(colors, 0, COLS, EMPTY);
+		
+		changedRows |= (2 << row) - 1;
+		
+		// columns topped above the row moved down with it; one topped at it lost its top cell
+		for(int col = 0; col < COLS; col++)
+		{
+			if(tops[col] < row)
+				tops[col]++;
+			else if(tops[col] == row)
+				tops[col] = (byte) topBelow(col, row);
+		}
+	}
+	
+	/**
+	 * Pushes every row up by the given count and fills the bottom rows
+	 * with garbage, open only at holeCol.
+	 *
+	 * @return whether any filled cell was pushed off the top
+	 */
+	public boolean addGarbage(int count, int holeCol)
+	{
+		boolean overflow = false;
+		
+		for(int row = 0; row < count; row++)
+			overflow |= rows[row] != 0;
+		
+		System.arraycopy(rows, count, rows, 0, ROWS - count);
+		System.arraycopy(colors, count * COLS, colors, 0, (ROWS - count) * COLS);
+		
+		for(int row = ROWS - count; row < ROWS; row++)
+		{
+			rows[row] = (short) (FULL_ROW & ~(1 << holeCol));
+			
+			Arrays.fill(colors, row * COLS, (row + 1) * COLS, GARBAGE);
+			
+			colors[row * COLS + holeCol] = EMPTY;
+		}
+		
+		changedRows = ALL_ROWS;
+		
+		findTops();
+		
+		return overflow;
+	}
+	
+	/** The first filled row in the column at or below from, or ROWS. */
+	private int topBelow(int col, int from)
+	{
+		int row = from;
+		
+		while(row < ROWS && (rows[row] & (1 << col)) == 0)
+			row++;
+		
+		return row;
+	}
+	
+	/** Finds every column's top from scratch, one pass down the rows. */
+	private void findTops()
+	{
+		Arrays.fill(tops, (byte) ROWS);
+		
+		int seen = 0;
+		
+		for(int row = 0; row < ROWS && seen != FULL_ROW; row++)
+		{
+			int found = rows[row] & ~seen;
+			
+			for(; found != 0; found &= found - 1)
+				tops[Integer.numberOfTrailingZeros(found)] = (byte) row;
+			
+			seen |= rows[row];
+		}
+	}
+	
+	/** The top filled row of the column, or {@link #ROWS} if it is empty. */
+	public int getColumnTop(int col) {
+		return tops[col];
+	}
+	
+	/** Filled or covered cells in the column, counted from the bottom. */
+	public int getColumnHeight(int col) {
+		return ROWS - tops[col];
+	}
+	
+	/**
+	 * The row a shape at the given position comes to rest on when dropped
+	 * straight down, or row - 1 if it already collides there. When every
+	 * cell is above its column's top this is one lookup per cell; a shape
+	 * tucked under an overhang or off the side is moved down row by row.
+	 */
+	public int getLandingRow(Shape shape, int row, int col)
+	{
+		int landing = Integer.MAX_VALUE;
+		
+		for(int i = 0; i < Shape.SIZE; i++)
+		{
+			int cellRow = row + shape.getRow(i),
+				cellCol = col + shape.getCol(i);
+			
+			// off the side, or under the top of its column
+			if(cellCol < 0 || cellCol >= COLS || cellRow >= tops[cellCol])
+				return probeLandingRow(shape, row, col);
+			
+			int top = tops[cellCol];
+			
+			landing = Math.min(landing, top - 1 - shape.getRow(i));
+		}
+		
+		return landing;
+	}
+	
+	private int probeLandingRow(Shape shape, int row, int col)
+	{
+		while(fits(shape, row, col))
+			row++;
+		
+		return row - 1;
+	}
+	
+	/** The same test as {@link Piece#collides}, negated. */
+	private boolean fits(Shape shape, int row, int col)
+	{
+		for(int i = 0; i < Shape.SIZE; i++)
+		{
+			int cellRow = row + shape.getRow(i),
+				cellCol = col + shape.getCol(i);
+			
+			if(cellRow < 0)
+				continue;
+			else if(cellCol < 0 || cellCol >= COLS || cellRow >= ROWS || isFilled(cellRow, cellCol))
+				return false;
+		}
+		
+		return true;
+	}
+	
+	/** Bit n set when row n was written to since the last clear. */
+	public int getChangedRows() {
+		return changedRows;
+	}
+	
+	public void clearChangedRows() {
+		changedRows = 0;
+	}
+}
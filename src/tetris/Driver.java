@@ -1,9 +1,47 @@
 package tetris;
+import java.util.Arrays;
 
 public class Driver 
 {
-	public static void main(String[] args) 
+	public static void main(String[] args) throws Exception
 	{
+		if(args.length > 0 && args[0].equals("batch"))
+		{
+			BatchRunner.main(Arrays.copyOfRange(args, 1, args.length));
+			
+			return;
+		}
+		else if(args.length > 0 && args[0].equals("replay"))
+		{
+			ReplayReader.main(Arrays.copyOfRange(args, 1, args.length));
+			
+			return;
+		}
+		else if(args.length > 0 && args[0].equals("archive"))
+		{
+			ReplayArchive.main(Arrays.copyOfRange(args, 1, args.length));
+			
+			return;
+		}
+		else if(args.length > 0 && args[0].equals("server"))
+		{
+			MatchServer.main(Arrays.copyOfRange(args, 1, args.length));
+			
+			return;
+		}
+		else if(args.length > 0 && args[0].equals("loadtest"))
+		{
+			MatchClient.main(Arrays.copyOfRange(args, 1, args.length));
+			
+			return;
+		}
+		else if(args.length > 0 && args[0].equals("host"))
+		{
+			SessionHost.main(Arrays.copyOfRange(args, 1, args.length));
+			
+			return;
+		}
+		
 		Tetris tetris = new Tetris();
 		
 		tetris.start();
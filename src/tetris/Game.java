@@ -0,0 +1,503 @@
+package tetris;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Headless game state: the board, the current and next piece, scoring
+ * and the line-clear state machine. A game only advances when
+ * {@link #update(double)} is called, so with the same seed and the same
+ * sequence of time steps and inputs it always plays out identically.
+ * Nothing in here loads AWT, Swing or sound classes.
+ * <p>
+ * The complete state can be written to a buffer with {@link #save} and
+ * read back with {@link #restore} in a fixed layout of
+ * {@link #STATE_SIZE} bytes: the magic "TGST" and a version byte, the
+ * board, the current and next piece as type, orientation, row and column,
+ * the drop mode, the line-clear state, the scores and timers, the game
+ * over flag, the waiting garbage and finally the piece generator.
+ */
+public class Game
+{
+	private static final int COLS = Board.COLS, ROWS = Board.ROWS;
+	
+	static final int SPAWN_ROW = 0, SPAWN_COL = 4;
+	
+	private static final double NORMAL_MOVE_DELAY = 0.60,
+								SOFT_MOVE_DELAY = 0.30;
+	
+	private static final int NO_FILLED_ROW = -1;
+	
+	private static final int GHOST_STALE = Integer.MIN_VALUE;
+	
+	private static final double REMOVE_ROW_PERIOD = 0.25;
+	
+	public enum DropMode {NORMAL, SOFT}
+	
+	// values() copies its array on every call
+	private static final DropMode[] DROP_MODES = DropMode.values();
+	
+	public static final int STATE_MAGIC = 0x54475354, STATE_VERSION = 2;
+	
+	private static final int PIECE_STATE_SIZE = 1 + 1 + 4 + 4;
+	
+	/** Bytes written by {@link #save}. */
+	public static final int STATE_SIZE = 4 + 1 + Board.STATE_SIZE + 2 * PIECE_STATE_SIZE + 1 + 4 * 5 + 8 * 2 + 1 + 4 * 2 +
+										 PieceGenerator.STATE_SIZE;
+	
+	// offsets into the saved state, for reading it in place
+	static final int BOARD_OFFSET = 5,
+					 PIECE_OFFSET = BOARD_OFFSET + Board.STATE_SIZE,
+					 NEXT_PIECE_OFFSET = PIECE_OFFSET + PIECE_STATE_SIZE,
+					 SCORE_OFFSET = NEXT_PIECE_OFFSET + PIECE_STATE_SIZE + 1 + 4 * 3,
+					 BEST_SCORE_OFFSET = SCORE_OFFSET + 4,
+					 TIME_OFFSET = BEST_SCORE_OFFSET + 4,
+					 GAME_OVER_OFFSET = TIME_OFFSET + 8 * 2;
+	
+	private Board board;
+	
+	private Piece currPiece, nextPiece;
+	
+	private PieceGenerator generator;
+	
+	// what restore() moves the pieces and generator into, so it allocates
+	// only the first time it meets a piece type or generator mode
+	private final Piece[] restoredCurrent = new Piece[Piece.TYPES + 1],
+						  restoredNext = new Piece[Piece.TYPES + 1];
+	
+	private final PieceGenerator[] generators = new PieceGenerator[PieceGenerator.MODES.length];
+	
+	private DropMode dropMode;
+	
+	private int filledRowStart, filledRowEnd;
+	
+	// bit n set when row n is waiting to be removed
+	private int filledRows;
+	
+	private int score, bestScore;
+	
+	private double time, elapsed;
+	
+	private boolean gameOver;
+	
+	// garbage rows waiting for the next lock that fills no row
+	private int pendingGarbage, garbageHole;
+	
+	// where the current piece would land, or GHOST_STALE once it or the board has changed
+	private int ghostRow = GHOST_STALE;
+	
+	private List<GameListener> listeners;
+	
+	/** A game dealing 7-bag pieces from a random seed. */
+	public Game() {
+		this(PieceGenerator.create(PieceGenerator.Mode.BAG, new Random().nextLong()));
+	}
+	
+	/** A game dealing uniformly random pieces from the given seed. */
+	public Game(long seed) {
+		this(PieceGenerator.create(PieceGenerator.Mode.UNIFORM, seed));
+	}
+	
+	public Game(PieceGenerator generator)
+	{
+		this.generator = generator;
+		
+		generators[generator.getMode().ordinal()] = generator;
+		
+		board = new Board();
+		
+		listeners = new ArrayList<GameListener>();
+		
+		dropMode = DropMode.NORMAL;
+		
+		currPiece = randomPiece();
+		nextPiece = randomPiece();
+		
+		filledRowStart = filledRowEnd = NO_FILLED_ROW;
+	}
+	
+	public void addGameListener(GameListener listener) {
+		listeners.add(listener);
+	}
+	
+	public void removeGameListener(GameListener listener) {
+		listeners.remove(listener);
+	}
+	
+	Piece randomPiece() {
+		return Piece.create(generator.next(), SPAWN_ROW, SPAWN_COL);
+	}
+	
+	public void update(double dt)
+	{
+		if(gameOver)
+			return;
+		
+		time += dt;
+		
+		elapsed += dt;
+		
+		if(filledRowStart == NO_FILLED_ROW)
+		{
+			double moveDelay = dropMode == DropMode.NORMAL ?
+					   NORMAL_MOVE_DELAY : SOFT_MOVE_DELAY;
+			
+			if(elapsed > moveDelay)
+			{
+				elapsed = 0;
+				
+				currPiece.moveDown();
+				
+				if(currPiece.collides(board))
+				{
+					currPiece.moveUp();
+					
+					lockPiece(false);
+				}
+			}
+		}
+		else
+		{
+			int c2 = COLS / 2;
+			
+			for(int row = filledRowStart; row <= filledRowEnd; row++)
+			{
+				if((filledRows & (1 << row)) == 0)
+					continue;
+				
+				for(int col = 0; col < COLS; col++)
+				{
+					if(elapsed > (c2 - Math.abs(col - c2)) * REMOVE_ROW_PERIOD / c2 && board.isFilled(row, col))
+					{
+						board.clear(row, col);
+						
+						ghostRow = GHOST_STALE;
+					}
+				}
+			}
+			
+			if(elapsed > REMOVE_ROW_PERIOD)
+			{
+				elapsed = 0;
+				
+				int rowsRemoved = Integer.bitCount(filledRows);
+				
+				for(int row = filledRowStart; row <= filledRowEnd; row++)
+					if((filledRows & (1 << row)) != 0)
+						board.dropRow(row);
+				
+				filledRowStart = filledRowEnd = NO_FILLED_ROW;
+				filledRows = 0;
+				
+				ghostRow = GHOST_STALE;
+				
+				score += 100 * rowsRemoved;
+				
+				if(bestScore < score)
+					bestScore = score;
+				
+				for(GameListener listener : listeners)
+				{
+					listener.rowsRemoved(rowsRemoved);
+					listener.scoreChanged(score, bestScore);
+				}
+			}
+		}
+	}
+	
+	private void lockPiece(boolean hardDrop)
+	{
+		currPiece.split(board);
+		
+		ghostRow = GHOST_STALE;
+		
+		for(GameListener listener : listeners)
+			listener.pieceLocked(hardDrop);
+		
+		currPiece = nextPiece;
+		
+		nextPiece = randomPiece();
+		
+		for(GameListener listener : listeners)
+			listener.pieceSpawned();
+		
+		int rowsFilled = 0;
+		
+		for(int row = 1; row < ROWS; row++)
+		{
+			if(board.isFilledRow(row))
+			{
+				rowsFilled++;
+				
+				filledRows |= 1 << row;
+				
+				if(filledRowStart == NO_FILLED_ROW || row < filledRowStart)
+					filledRowStart = row;
+				
+				if(row > filledRowEnd)
+					filledRowEnd = row;
+			}
+		}
+		
+		if(rowsFilled > 0)
+			for(GameListener listener : listeners)
+				listener.rowsFilled(rowsFilled);
+		else if(pendingGarbage > 0)
+		{
+			if(board.addGarbage(Math.min(pendingGarbage, ROWS - 1), garbageHole))
+				gameOver = true;
+		
+			pendingGarbage = 0;
+			
+			ghostRow = GHOST_STALE;
+		}
+		
+		if(gameOver || currPiece.collides(board))
+		{
+			gameOver = true;
+			
+			for(GameListener listener : listeners)
+				listener.gameOver();
+		}
+	}
+	
+	public void hardDrop()
+	{
+		if(gameOver)
+			return;
+		
+		elapsed = 0;
+		
+		currPiece.drop(board);
+		
+		lockPiece(true);
+	}
+	
+	public void moveCurrentPieceLeft()
+	{
+		currPiece.moveLeft();
+		
+		if(currPiece.collides(board))
+			currPiece.moveRight();
+		else
+			ghostRow = GHOST_STALE;
+	}
+	
+	public void moveCurrentPieceRight()
+	{
+		currPiece.moveRight();
+		
+		if(currPiece.collides(board))
+			currPiece.moveLeft();
+		else
+			ghostRow = GHOST_STALE;
+	}
+	
+	public void rotateCurrentPieceLeft()
+	{
+		currPiece.rotateLeft();
+		
+		if(currPiece.collides(board))
+			currPiece.rotateRight();
+		else
+		{
+			ghostRow = GHOST_STALE;
+			
+			for(GameListener listener : listeners)
+				listener.pieceRotated();
+		}
+	}
+	
+	public void rotateCurrentPieceRight()
+	{
+		currPiece.rotateRight();
+		
+		if(currPiece.collides(board))
+			currPiece.rotateLeft();
+		else
+		{
+			ghostRow = GHOST_STALE;
+			
+			for(GameListener listener : listeners)
+				listener.pieceRotated();
+		}
+	}
+	
+	/**
+	 * Queues garbage rows, open at holeCol, that rise from the bottom the
+	 * next time a piece locks without filling a row.
+	 */
+	public void addGarbage(int count, int holeCol)
+	{
+		pendingGarbage += count;
+		
+		garbageHole = holeCol;
+	}
+	
+	public int getPendingGarbage() {
+		return pendingGarbage;
+	}
+	
+	public void setDropMode(DropMode dropMode) {
+		this.dropMode = dropMode;
+	}
+	
+	public DropMode getDropMode() {
+		return dropMode;
+	}
+	
+	/** Deals the pieces after nextPiece; peek at it to look further ahead. */
+	public PieceGenerator getGenerator() {
+		return generator;
+	}
+	
+	public Board getBoard() {
+		return board;
+	}
+	
+	public Piece getCurrentPiece() {
+		return currPiece;
+	}
+	
+	public Piece getNextPiece() {
+		return nextPiece;
+	}
+	
+	/**
+	 * The row the current piece would land on if hard dropped. It is only
+	 * found again after the piece moves sideways or rotates, or the board
+	 * changes; falling does not change where the piece lands.
+	 */
+	public int getGhostRow()
+	{
+		if(ghostRow == GHOST_STALE)
+			ghostRow = currPiece.getLandingRow(board);
+		
+		return ghostRow;
+	}
+	
+	public int getScore() {
+		return score;
+	}
+	
+	public int getBestScore() {
+		return bestScore;
+	}
+	
+	public double getTime() {
+		return time;
+	}
+	
+	/** True while filled rows are being animated away and not yet removed. */
+	public boolean isClearingRows() {
+		return filledRows != 0;
+	}
+	
+	public boolean isGameOver() {
+		return gameOver;
+	}
+	
+	/**
+	 * Writes the whole game at the buffer's position, which must have
+	 * {@link #STATE_SIZE} bytes remaining. Listeners are not saved.
+	 */
+	public void save(ByteBuffer buffer)
+	{
+		buffer.putInt(STATE_MAGIC);
+		buffer.put((byte) STATE_VERSION);
+		
+		board.save(buffer);
+		
+		savePiece(buffer, currPiece);
+		savePiece(buffer, nextPiece);
+		
+		buffer.put((byte) dropMode.ordinal());
+		buffer.putInt(filledRowStart);
+		buffer.putInt(filledRowEnd);
+		buffer.putInt(filledRows);
+		buffer.putInt(score);
+		buffer.putInt(bestScore);
+		buffer.putDouble(time);
+		buffer.putDouble(elapsed);
+		buffer.put((byte) (gameOver ? 1 : 0));
+		buffer.putInt(pendingGarbage);
+		buffer.putInt(garbageHole);
+		
+		generator.save(buffer);
+	}
+	
+	/**
+	 * Replaces the whole game with one written by {@link #save}. Pieces and
+	 * generators are kept from earlier restores and reused, so once each
+	 * piece type and generator mode has been seen restoring allocates
+	 * nothing. Listeners stay registered and are told about the new
+	 * pieces and score.
+	 *
+	 * @throws IllegalArgumentException if the buffer does not hold a saved game
+	 */
+	public void restore(ByteBuffer buffer)
+	{
+		if(buffer.getInt() != STATE_MAGIC)
+			throw new IllegalArgumentException("Not a saved game");
+		
+		int version = buffer.get();
+		
+		if(version != STATE_VERSION)
+			throw new IllegalArgumentException("Unsupported saved game version " + version);
+		
+		board.restore(buffer);
+		
+		// separate sets, so the two pieces are never the same object
+		currPiece = restorePiece(buffer, restoredCurrent);
+		nextPiece = restorePiece(buffer, restoredNext);
+		
+		dropMode = DROP_MODES[buffer.get()];
+		filledRowStart = buffer.getInt();
+		filledRowEnd = buffer.getInt();
+		filledRows = buffer.getInt();
+		score = buffer.getInt();
+		bestScore = buffer.getInt();
+		time = buffer.getDouble();
+		elapsed = buffer.getDouble();
+		gameOver = buffer.get() != 0;
+		pendingGarbage = buffer.getInt();
+		garbageHole = buffer.getInt();
+		
+		generator = PieceGenerator.restore(buffer, generators);
+		
+		ghostRow = GHOST_STALE;
+		
+		for(GameListener listener : listeners)
+		{
+			listener.pieceSpawned();
+			listener.scoreChanged(score, bestScore);
+		}
+	}
+	
+	private static void savePiece(ByteBuffer buffer, Piece piece)
+	{
+		buffer.put(piece.getType());
+		buffer.put((byte) piece.getOrientation());
+		buffer.putInt(piece.getRow());
+		buffer.putInt(piece.getCol());
+	}
+	
+	private static Piece restorePiece(ByteBuffer buffer, Piece[] pieces)
+	{
+		byte type = buffer.get();
+		
+		int orientation = buffer.get(),
+			row = buffer.getInt(),
+			col = buffer.getInt();
+		
+		Piece piece = pieces[type];
+		
+		if(piece == null)
+			piece = pieces[type] = Piece.create(type, row, col);
+		
+		piece.moveTo(row, col, orientation);
+		
+		return piece;
+	}
+}
@@ -0,0 +1,22 @@
+package tetris;
+
+/**
+ * Empty implementation of {@link GameListener} for listeners that only
+ * care about a few events.
+ */
+public abstract class GameAdapter implements GameListener
+{
+	public void pieceRotated() {}
+	
+	public void pieceLocked(boolean hardDrop) {}
+	
+	public void pieceSpawned() {}
+	
+	public void rowsFilled(int count) {}
+	
+	public void rowsRemoved(int count) {}
+	
+	public void scoreChanged(int score, int bestScore) {}
+	
+	public void gameOver() {}
+}
@@ -0,0 +1,24 @@
+package tetris;
+
+/**
+ * Receives notifications from a {@link Game} as it is stepped. Sound,
+ * rendering and other presentation layers observe the game through this
+ * interface so the rules themselves never touch AWT or audio classes.
+ */
+public interface GameListener
+{
+	public void pieceRotated();
+	
+	public void pieceLocked(boolean hardDrop);
+	
+	/** A new current piece has entered and a new next piece was chosen. */
+	public void pieceSpawned();
+	
+	public void rowsFilled(int count);
+	
+	public void rowsRemoved(int count);
+	
+	public void scoreChanged(int score, int bestScore);
+	
+	public void gameOver();
+}
@@ -0,0 +1,178 @@
+package tetris;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Exposes the loops' counters and histograms as the tetris:type=GameMetrics
+ * MBean, so a running game can be watched with jconsole or any other JMX
+ * client. Every reading is taken from volatile fields or lock-free
+ * histograms owned by the thread being measured.
+ */
+public class GameMetrics implements GameMetricsMBean
+{
+	public static final String NAME = "tetris:type=GameMetrics";
+	
+	private static final GarbageCollectorMXBean[] COLLECTORS;
+	
+	static
+	{
+		List<GarbageCollectorMXBean> beans = ManagementFactory.getGarbageCollectorMXBeans();
+		
+		COLLECTORS = beans.toArray(new GarbageCollectorMXBean[beans.size()]);
+	}
+	
+	private Tetris tetris;
+	
+	public GameMetrics(Tetris tetris) {
+		this.tetris = tetris;
+	}
+	
+	public void register() throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(NAME));
+	}
+	
+	public void unregister() throws JMException {
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(NAME));
+	}
+	
+	/** Collections run by every collector so far. Allocation-free. */
+	static long getCollectionCount()
+	{
+		long count = 0;
+		
+		for(GarbageCollectorMXBean collector : COLLECTORS)
+			count += Math.max(0, collector.getCollectionCount());
+		
+		return count;
+	}
+	
+	/**
+	 * Bytes the thread has allocated so far, or -1 if the JVM cannot
+	 * measure per-thread allocation.
+	 */
+	static long getAllocatedBytes(long threadId)
+	{
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		
+		if(!(threads instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		
+		return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threadId);
+	}
+	
+	public int getFPS() {
+		return tetris.getRenderLoop().getFPS();
+	}
+	
+	public int getTicks() {
+		return tetris.getUpdater().getTicks();
+	}
+	
+	public double getFrameTimeP50() {
+		return micros(tetris.getRenderLoop().getFrameTime().getPercentile(0.50));
+	}
+	
+	public double getFrameTimeP99() {
+		return micros(tetris.getRenderLoop().getFrameTime().getPercentile(0.99));
+	}
+	
+	public double getFrameTimeP999() {
+		return micros(tetris.getRenderLoop().getFrameTime().getPercentile(0.999));
+	}
+	
+	public double getFrameTimeMax() {
+		return micros(tetris.getRenderLoop().getFrameTime().getMax());
+	}
+	
+	public double getUpdateTimeP50() {
+		return micros(tetris.getUpdater().getUpdateTime().getPercentile(0.50));
+	}
+	
+	public double getUpdateTimeP99() {
+		return micros(tetris.getUpdater().getUpdateTime().getPercentile(0.99));
+	}
+	
+	public double getUpdateTimeMax() {
+		return micros(tetris.getUpdater().getUpdateTime().getMax());
+	}
+	
+	public double getRenderTimeP50() {
+		return micros(tetris.getRenderLoop().getRenderTime().getPercentile(0.50));
+	}
+	
+	public double getRenderTimeP99() {
+		return micros(tetris.getRenderLoop().getRenderTime().getPercentile(0.99));
+	}
+	
+	public double getRenderTimeMax() {
+		return micros(tetris.getRenderLoop().getRenderTime().getMax());
+	}
+	
+	public double getInputLatencyP99() {
+		return micros(tetris.getLatency().getTotalLatency().getPercentile(0.99));
+	}
+	
+	public long getMissedUpdates() {
+		return tetris.getUpdater().getMissedDeadlines();
+	}
+	
+	public long getMissedFrames() {
+		return tetris.getRenderLoop().getMissedFrames();
+	}
+	
+	public long getMissedUpdatesDuringGC() {
+		return tetris.getUpdater().getMissedDuringGC();
+	}
+	
+	public int getInputQueueDepth() {
+		return tetris.getInput().size();
+	}
+	
+	public int getActiveVoices() {
+		return Audio.getActiveVoices();
+	}
+	
+	public double getAudioLatencyP99() {
+		return micros(Audio.getLatencyPercentile(0.99));
+	}
+	
+	/**
+	 * Bytes allocated by the simulation thread per step over its last
+	 * sample, or -1 if the JVM cannot measure per-thread allocation. The
+	 * simulation samples itself, so reading this changes nothing.
+	 */
+	public long getAllocatedBytesPerTick() {
+		return tetris.getUpdater().getAllocatedBytesPerTick();
+	}
+	
+	public long getGCCount() {
+		return getCollectionCount();
+	}
+	
+	public long getGCTime()
+	{
+		long time = 0;
+		
+		for(GarbageCollectorMXBean collector : COLLECTORS)
+			time += Math.max(0, collector.getCollectionTime());
+		
+		return time;
+	}
+	
+	// called on a JMX thread, so each histogram is reset by the thread recording it
+	public void resetHistograms()
+	{
+		tetris.getRenderLoop().getFrameTime().requestReset();
+		tetris.getRenderLoop().getRenderTime().requestReset();
+		tetris.getUpdater().getUpdateTime().requestReset();
+	}
+	
+	private static double micros(long nanos) {
+		return nanos / 1000.0;
+	}
+}
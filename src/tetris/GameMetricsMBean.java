@@ -0,0 +1,56 @@
+package tetris;
+
+/**
+ * Game loop readings published over JMX. Times are in microseconds;
+ * counters are totals since start.
+ */
+public interface GameMetricsMBean
+{
+	public int getFPS();
+	
+	public int getTicks();
+	
+	public double getFrameTimeP50();
+	
+	public double getFrameTimeP99();
+	
+	public double getFrameTimeP999();
+	
+	public double getFrameTimeMax();
+	
+	public double getUpdateTimeP50();
+	
+	public double getUpdateTimeP99();
+	
+	public double getUpdateTimeMax();
+	
+	public double getRenderTimeP50();
+	
+	public double getRenderTimeP99();
+	
+	public double getRenderTimeMax();
+	
+	public double getInputLatencyP99();
+	
+	public long getMissedUpdates();
+	
+	public long getMissedFrames();
+	
+	public long getMissedUpdatesDuringGC();
+	
+	public int getInputQueueDepth();
+	
+	public int getActiveVoices();
+	
+	public double getAudioLatencyP99();
+	
+	public long getAllocatedBytesPerTick();
+	
+	public long getGCCount();
+	
+	/** Total collection time in milliseconds. */
+	public long getGCTime();
+	
+	/** Clears the frame, render and update times, from their next recorded value on. */
+	public void resetHistograms();
+}
@@ -0,0 +1,11 @@
+package tetris;
+
+/**
+ * Scores a board after a placement for {@link PlacementSearch}. Higher
+ * is better. Implementations are called from several threads at once
+ * and must not modify the board.
+ */
+public interface Heuristic
+{
+	public double evaluate(Board board, int linesCleared);
+}
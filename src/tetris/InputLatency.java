@@ -0,0 +1,113 @@
+package tetris;
+
+/**
+ * Measures how long input takes to reach the screen, in three stages:
+ * queue (key event to the simulation applying it), frame (applying it
+ * to the frame showing it being presented) and total (key event to
+ * present).
+ * <p>
+ * The simulation stamps the oldest unpresented input into every
+ * {@link Snapshot} until the render thread reports presenting it, so
+ * inputs in snapshots the renderer skipped are still counted. Inputs
+ * arriving while another is pending are folded into it, so the frame
+ * and total stages report the worst case of each burst.
+ */
+public class InputLatency
+{
+	private InputQueue input;
+	
+	private LatencyHistogram frame, total;
+	
+	// simulation thread only
+	private long pendingIssued, pendingApplied;
+	
+	private volatile long acknowledged;
+	
+	// render thread only
+	private long lastSeen;
+	
+	public InputLatency(InputQueue input)
+	{
+		this.input = input;
+		
+		frame = new LatencyHistogram();
+		total = new LatencyHistogram();
+	}
+	
+	/** Called by the simulation after a drain that applied commands. */
+	public void applied(long issued)
+	{
+		expire();
+		
+		if(pendingIssued == 0)
+		{
+			pendingIssued = issued;
+			pendingApplied = System.nanoTime();
+		}
+	}
+	
+	public long getPendingIssued()
+	{
+		expire();
+		
+		return pendingIssued;
+	}
+	
+	public long getPendingApplied()
+	{
+		expire();
+		
+		return pendingApplied;
+	}
+	
+	private void expire()
+	{
+		if(pendingIssued != 0 && pendingIssued == acknowledged)
+			pendingIssued = pendingApplied = 0;
+	}
+	
+	/**
+	 * Called by the render thread after it has handled a snapshot. If
+	 * nothing was drawn because nothing changed, the input had no visible
+	 * effect and is dropped without being recorded.
+	 */
+	public void presented(Snapshot snapshot, boolean drawn)
+	{
+		long issued = snapshot.getInputIssued();
+		
+		if(issued == 0 || issued == lastSeen)
+			return;
+		
+		lastSeen = issued;
+		
+		if(drawn)
+		{
+			long now = System.nanoTime();
+			
+			frame.record(now - snapshot.getInputApplied());
+			total.record(now - issued);
+		}
+		
+		acknowledged = issued;
+	}
+	
+	public LatencyHistogram getQueueLatency() {
+		return input.getLatency();
+	}
+	
+	public LatencyHistogram getFrameLatency() {
+		return frame;
+	}
+	
+	public LatencyHistogram getTotalLatency() {
+		return total;
+	}
+	
+	public String toString()
+	{
+		return "input latency\n" +
+			   "  queue: " + getQueueLatency() + "\n" +
+			   "  frame: " + frame + "\n" +
+			   "  total: " + total;
+	}
+}
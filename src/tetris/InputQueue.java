@@ -0,0 +1,165 @@
+package tetris;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-producer, single-consumer ring buffer of input commands. Each
+ * command is an action code plus the System.nanoTime() it was issued at.
+ * The producer (the EDT for the keyboard, or a bot or replay thread)
+ * calls {@link #offer}; the simulation thread calls {@link #drainTo}
+ * once per step. Neither side locks or allocates.
+ * <p>
+ * Only one thread may offer to a given queue. Code already running on
+ * the simulation thread can call {@link #apply} directly.
+ */
+public class InputQueue
+{
+	public static final int MOVE_LEFT = 0,
+							MOVE_RIGHT = 1,
+							ROTATE_LEFT = 2,
+							ROTATE_RIGHT = 3,
+							SOFT_DROP = 4,
+							NORMAL_DROP = 5,
+							HARD_DROP = 6;
+	
+	public static final int DEFAULT_CAPACITY = 256;
+	
+	private final int[] actions;
+	
+	private final long[] times;
+	
+	private final int mask;
+	
+	// next slot to write, only advanced by the producer
+	private final AtomicLong tail = new AtomicLong();
+	
+	// next slot to read, only advanced by the consumer
+	private final AtomicLong head = new AtomicLong();
+	
+	private final LatencyHistogram latency;
+	
+	// consumer only
+	private long drainIssued;
+	
+	public InputQueue() {
+		this(DEFAULT_CAPACITY);
+	}
+	
+	/** @param capacity rounded up to a power of two */
+	public InputQueue(int capacity) {
+		this(capacity, new LatencyHistogram());
+	}
+	
+	/**
+	 * @param capacity rounded up to a power of two
+	 * @param latency records each command's time in the queue, or null not to
+	 */
+	public InputQueue(int capacity, LatencyHistogram latency)
+	{
+		this.latency = latency;
+		
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		
+		actions = new int[size];
+		times = new long[size];
+		
+		mask = size - 1;
+	}
+	
+	/** Queues a command, or returns false if the queue is full. */
+	public boolean offer(int action, long time)
+	{
+		long t = tail.get();
+		
+		if(t - head.get() > mask)
+			return false;
+		
+		int i = (int) t & mask;
+		
+		actions[i] = action;
+		times[i] = time;
+		
+		// publishes the slot contents before the new tail
+		tail.lazySet(t + 1);
+		
+		return true;
+	}
+	
+	public boolean offer(int action) {
+		return offer(action, System.nanoTime());
+	}
+	
+	public int drainTo(Game game) {
+		return drainTo(game, null);
+	}
+	
+	/** Applies every queued command to the game, oldest first, recording each if replay is not null. */
+	public int drainTo(Game game, ReplayWriter replay)
+	{
+		long h = head.get(),
+			 t = tail.get();
+		
+		if(h == t)
+			return 0;
+		
+		long now = System.nanoTime();
+		
+		int count = (int) (t - h);
+		
+		drainIssued = times[(int) h & mask];
+		
+		for(; h != t; h++)
+		{
+			int i = (int) h & mask;
+			
+			// recorded first, so an action that ends the game is still in the recording
+			if(replay != null)
+				replay.record(actions[i]);
+			
+			apply(game, actions[i]);
+			
+			if(latency != null)
+				latency.record(now - times[i]);
+		}
+		
+		head.lazySet(h);
+		
+		return count;
+	}
+	
+	public static void apply(Game game, int action)
+	{
+		switch(action)
+		{
+			case MOVE_LEFT: game.moveCurrentPieceLeft(); break;
+			case MOVE_RIGHT: game.moveCurrentPieceRight(); break;
+			case ROTATE_LEFT: game.rotateCurrentPieceLeft(); break;
+			case ROTATE_RIGHT: game.rotateCurrentPieceRight(); break;
+			case SOFT_DROP: game.setDropMode(Game.DropMode.SOFT); break;
+			case NORMAL_DROP: game.setDropMode(Game.DropMode.NORMAL); break;
+			case HARD_DROP: game.hardDrop(); break;
+		}
+	}
+	
+	public boolean isEmpty() {
+		return head.get() == tail.get();
+	}
+	
+	/** Commands waiting to be drained; may be stale by the time it returns. */
+	public int size() {
+		return (int) (tail.get() - head.get());
+	}
+	
+	public int getCapacity() {
+		return mask + 1;
+	}
+	
+	/** When the oldest command applied by the last non-empty drain was issued. */
+	public long getDrainIssued() {
+		return drainIssued;
+	}
+	
+	/** Time from each command being issued to it being applied, or null if not recorded. */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+}
@@ -0,0 +1,170 @@
+package tetris;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size histogram of nanosecond durations. Buckets are log-linear,
+ * 16 per power of two, so any value is reported to within about 6% while
+ * the whole range up to Long.MAX_VALUE fits in under a thousand counters.
+ * <p>
+ * Recording never allocates or locks. It is meant to be done from one
+ * thread; other threads may read percentiles at any time, and reset the
+ * histogram through {@link #requestReset}.
+ */
+public class LatencyHistogram
+{
+	private static final int SUB_BITS = 4, SUB_COUNT = 1 << SUB_BITS;
+	
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	
+	private volatile long count, max;
+	
+	// set by other threads; the recording thread resets before its next value
+	private volatile boolean resetRequested;
+	
+	public void record(long nanos)
+	{
+		if(resetRequested)
+		{
+			resetRequested = false;
+			
+			reset();
+		}
+		
+		if(nanos < 0)
+			nanos = 0;
+		
+		int i = indexOf(nanos);
+		
+		counts.lazySet(i, counts.get(i) + 1);
+		
+		if(nanos > max)
+			max = nanos;
+		
+		count++;
+	}
+	
+	public long getCount() {
+		return count;
+	}
+	
+	public long getMax() {
+		return max;
+	}
+	
+	/**
+	 * The smallest recorded bucket that at least the given fraction of
+	 * values fall at or below, e.g. 0.99 for p99. Returns 0 if empty.
+	 */
+	public long getPercentile(double fraction)
+	{
+		long total = count;
+		
+		if(total == 0)
+			return 0;
+		
+		long rank = (long) Math.ceil(fraction * total),
+			 seen = 0;
+		
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			seen += counts.get(i);
+			
+			if(seen >= Math.max(1, rank))
+				return Math.min(highestValueIn(i), max);
+		}
+		
+		return max;
+	}
+	
+	/** Adds every value recorded in other to this histogram. */
+	public void add(LatencyHistogram other)
+	{
+		for(int i = 0; i < BUCKETS; i++)
+			counts.lazySet(i, counts.get(i) + other.counts.get(i));
+		
+		if(other.max > max)
+			max = other.max;
+		
+		count += other.count;
+	}
+	
+	/**
+	 * Adds the values other has recorded since the last call with the same
+	 * mark, and brings the mark up to other's counts. Other may be recorded
+	 * into meanwhile: each value is added by exactly one call, so
+	 * intervals are read without resetting, and so without racing, the
+	 * thread recording. An interval's max is its highest bucket's, to
+	 * within the same 6% as percentiles.
+	 */
+	public void addSince(LatencyHistogram other, LatencyHistogram mark)
+	{
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			long seen = other.counts.get(i),
+				 added = seen - mark.counts.get(i);
+			
+			if(added == 0)
+				continue;
+			
+			mark.counts.lazySet(i, seen);
+			
+			counts.lazySet(i, counts.get(i) + added);
+			
+			count += added;
+			
+			if(highestValueIn(i) > max)
+				max = highestValueIn(i);
+		}
+	}
+	
+	/** Only safe from the recording thread; other threads use {@link #requestReset}. */
+	public void reset()
+	{
+		for(int i = 0; i < BUCKETS; i++)
+			counts.set(i, 0);
+		
+		count = 0;
+		max = 0;
+	}
+	
+	/**
+	 * Has the recording thread reset the histogram just before it records
+	 * its next value, so no value is lost to a reset racing it. Until then
+	 * the old values are still reported.
+	 */
+	public void requestReset() {
+		resetRequested = true;
+	}
+	
+	private static int indexOf(long value)
+	{
+		if(value < 2 * SUB_COUNT)
+			return (int) value;
+		
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		
+		return shift * SUB_COUNT + (int) (value >>> shift);
+	}
+	
+	private static long highestValueIn(int index)
+	{
+		if(index < 2 * SUB_COUNT)
+			return index;
+		
+		int shift = index / SUB_COUNT - 1;
+		
+		long sub = index % SUB_COUNT + SUB_COUNT;
+		
+		return ((sub + 1) << shift) - 1;
+	}
+	
+	/** p50, p99, p99.9 and max in microseconds. */
+	public String toString()
+	{
+		return String.format("n=%d p50=%.1f p99=%.1f p99.9=%.1f max=%.1f us", getCount(),
+							 getPercentile(0.50) / 1000.0, getPercentile(0.99) / 1000.0,
+							 getPercentile(0.999) / 1000.0, getMax() / 1000.0);
+	}
+}
@@ -0,0 +1,471 @@
+package tetris;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * One connection to a {@link MatchServer}. The client keeps a copy of
+ * both boards, pieces and scores, updated from the server's messages,
+ * and sends commands as single bytes. Reads and writes never block, so
+ * many clients can share one thread.
+ * <p>
+ * The main method is a load test: it starts a server on a free loopback
+ * port, or uses the one given, and plays many matches with simulated
+ * clients on one thread. Usage: {@code java -jar tetris-clone.jar
+ * loadtest [-matches N] [-seconds N] [-policy bot|random] [-host H]
+ * [-port N]}
+ */
+public class MatchClient
+{
+	private static final int IN_BUFFER_SIZE = 16 * 1024;
+	
+	private SocketChannel channel;
+	
+	private ByteBuffer in = ByteBuffer.allocate(IN_BUFFER_SIZE);
+	
+	private ByteBuffer out = ByteBuffer.allocate(256);
+	
+	private int player = -1;
+	
+	private Board[] boards = {new Board(), new Board()};
+	
+	// type, orientation, row, column, next type, pieces spawned and flags per player
+	private int[][] pieces = new int[2][7];
+	
+	private int[] scores = new int[2], garbage = new int[2];
+	
+	private boolean over;
+	
+	private int winner;
+	
+	private boolean inSync = true;
+	
+	public MatchClient(InetSocketAddress address) throws IOException
+	{
+		channel = SocketChannel.open(address);
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+	}
+	
+	public SocketChannel getChannel() {
+		return channel;
+	}
+	
+	/** Queues a command for {@link #flush()}. */
+	public void send(int action)
+	{
+		if(out.hasRemaining())
+			out.put((byte) action);
+	}
+	
+	public void flush() throws IOException
+	{
+		out.flip();
+		
+		channel.write(out);
+		
+		out.compact();
+	}
+	
+	/**
+	 * Reads and applies whatever the server has sent.
+	 *
+	 * @return false once the server has closed the connection
+	 */
+	public boolean receive() throws IOException
+	{
+		int count = channel.read(in);
+		
+		in.flip();
+		
+		while(decode());
+		
+		in.compact();
+		
+		return count >= 0;
+	}
+	
+	/** Applies the first message in the buffer, if all of it has arrived. */
+	private boolean decode()
+	{
+		if(in.remaining() < 2)
+			return false;
+		
+		int start = in.position();
+		
+		byte type = in.get();
+		
+		int p = in.get();
+		
+		switch(type)
+		{
+			case MatchServer.START:
+				player = p;
+				
+				return true;
+			
+			case MatchServer.CELLS:
+				if(in.remaining() < 2 || in.remaining() < 2 + 3 * in.getShort(in.position()))
+					break;
+				
+				Board board = boards[p];
+				
+				for(int n = in.getShort(); n > 0; n--)
+				{
+					int row = in.get(),
+						col = in.get();
+					
+					byte color = in.get();
+					
+					if(color == Board.EMPTY)
+						board.clear(row, col);
+					else
+						board.fill(row, col, color);
+				}
+				
+				return true;
+			
+			case MatchServer.PIECE:
+				if(in.remaining() < 7)
+					break;
+				
+				for(int i = 0; i < 7; i++)
+					pieces[p][i] = in.get();
+				
+				return true;
+			
+			case MatchServer.SCORE:
+				if(in.remaining() < 4)
+					break;
+				
+				scores[p] = in.getInt();
+				
+				return true;
+			
+			case MatchServer.GARBAGE:
+				if(in.remaining() < 1)
+					break;
+				
+				garbage[p] = in.get();
+				
+				return true;
+			
+			case MatchServer.OVER:
+				if(in.remaining() < 8)
+					break;
+				
+				over = true;
+				winner = p;
+				
+				for(int i = 0; i < 2; i++)
+					if(in.getInt() != MatchServer.checksum(boards[i]))
+						inSync = false;
+				
+				return true;
+			
+			default:
+				throw new IllegalStateException("Unknown message " + type);
+		}
+		
+		in.position(start);
+		
+		return false;
+	}
+	
+	/** This client's player number, or -1 before the match has started. */
+	public int getPlayer() {
+		return player;
+	}
+	
+	public Board getBoard(int player) {
+		return boards[player];
+	}
+	
+	/** A piece placed where the server last said the player's current piece is. */
+	public Piece getCurrentPiece(int player)
+	{
+		int[] piece = pieces[player];
+		
+		Piece current = Piece.create(piece[0], piece[2], piece[3]);
+		
+		current.moveTo(piece[2], piece[3], piece[1]);
+		
+		return current;
+	}
+	
+	public byte getNextType(int player) {
+		return (byte) pieces[player][4];
+	}
+	
+	/** Pieces the player has been dealt, mod 256; changes when a new piece spawns. */
+	public int getSpawned(int player) {
+		return pieces[player][5] & 0xff;
+	}
+	
+	public boolean isClearingRows(int player) {
+		return (pieces[player][6] & MatchServer.CLEARING) != 0;
+	}
+	
+	public int getScore(int player) {
+		return scores[player];
+	}
+	
+	public int getPendingGarbage(int player) {
+		return garbage[player];
+	}
+	
+	public boolean isOver() {
+		return over;
+	}
+	
+	/** The winning player, or -1 for a draw. */
+	public int getWinner() {
+		return winner;
+	}
+	
+	/** Whether both boards matched the server's when the match ended. */
+	public boolean isInSync() {
+		return inSync;
+	}
+	
+	public void close() throws IOException {
+		channel.close();
+	}
+	
+	public static void main(String[] args) throws IOException
+	{
+		int matches = 100;
+		
+		double seconds = 30;
+		
+		BatchRunner.Policy policy = BatchRunner.Policy.BOT;
+		
+		String host = "localhost";
+		
+		int port = 0;
+		
+		for(int i = 0; i < args.length; i++)
+		{
+			String arg = args[i];
+			
+			if(arg.equals("-matches"))
+				matches = Integer.parseInt(args[++i]);
+			else if(arg.equals("-seconds"))
+				seconds = Double.parseDouble(args[++i]);
+			else if(arg.equals("-policy"))
+				policy = BatchRunner.Policy.valueOf(args[++i].toUpperCase());
+			else if(arg.equals("-host"))
+				host = args[++i];
+			else if(arg.equals("-port"))
+				port = Integer.parseInt(args[++i]);
+			else
+				throw new IllegalArgumentException("Unknown option: " + arg);
+		}
+		
+		MatchServer server = null;
+		
+		if(port == 0)
+		{
+			server = new MatchServer(new InetSocketAddress("localhost", 0), 1);
+			
+			port = server.getPort();
+			
+			new Thread(server, "Match Server").start();
+		}
+		
+		System.out.printf("%d matches, %s policy, %.0f s, port %d%n", matches, policy.name().toLowerCase(),
+						  seconds, port);
+		
+		new LoadTest(new InetSocketAddress(host, port), 2 * matches, policy).run((long) (seconds * 1.0e9), server);
+		
+		if(server != null)
+			server.stop();
+	}
+	
+	/** Simulated clients, all driven from the calling thread. */
+	private static class LoadTest
+	{
+		// a player's random commands come on about one step in this many
+		private static final int RANDOM_INPUT_PERIOD = 8;
+		
+		// once time is up clients hard drop until their match is over
+		private static final long FINISH_NANOS = 60 * 1000000000L;
+		
+		private Selector selector;
+		
+		private List<Simulated> clients = new ArrayList<Simulated>();
+		
+		private BatchRunner.Policy policy;
+		
+		private PlacementSearch search = new PlacementSearch(WeightedHeuristic.DEFAULT, null);
+		
+		private Random rand = new Random(1);
+		
+		public LoadTest(InetSocketAddress address, int clientCount, BatchRunner.Policy policy) throws IOException
+		{
+			this.policy = policy;
+			
+			selector = Selector.open();
+			
+			for(int i = 0; i < clientCount; i++)
+			{
+				Simulated client = new Simulated(new MatchClient(address));
+				
+				client.client.getChannel().register(selector, SelectionKey.OP_READ, client);
+				
+				clients.add(client);
+			}
+		}
+		
+		public void run(long nanos, MatchServer server) throws IOException
+		{
+			long start = System.nanoTime(),
+				 cpuStart = server != null ? server.getCpuTime() : 0,
+				 sentStart = server != null ? server.getBytesSent() : 0,
+				 lastStep = start;
+			
+			int open = clients.size();
+			
+			while(open > 0 && System.nanoTime() - start < nanos + FINISH_NANOS)
+			{
+				selector.select(BatchRunner.STEP_NANOS / 1000000);
+				
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				
+				while(keys.hasNext())
+				{
+					SelectionKey key = keys.next();
+					
+					keys.remove();
+					
+					Simulated client = (Simulated) key.attachment();
+					
+					try {
+						if(!client.client.receive())
+						{
+							client.client.close();
+							
+							open--;
+						}
+					} catch (IOException e) {
+						client.client.close();
+						
+						open--;
+					}
+				}
+				
+				long now = System.nanoTime();
+				
+				boolean finishing = now - start >= nanos;
+				
+				// at most one round of commands per server step
+				if(now - lastStep < BatchRunner.STEP_NANOS)
+					continue;
+				
+				lastStep = now;
+				
+				for(Simulated client : clients)
+					if(client.client.getChannel().isOpen() && !client.client.isOver())
+						try {
+							client.play(finishing);
+						} catch (IOException e) {
+							client.client.close();
+							
+							open--;
+						}
+			}
+			
+			long elapsed = System.nanoTime() - start;
+			
+			int finished = 0, inSync = 0, draws = 0, attacked = 0;
+			
+			for(Simulated client : clients)
+			{
+				MatchClient c = client.client;
+				
+				if(c.isOver())
+				{
+					finished++;
+					
+					if(c.isInSync())
+						inSync++;
+					
+					if(c.getWinner() < 0)
+						draws++;
+				}
+				
+				if(client.attacked)
+					attacked++;
+				
+				if(c.getChannel().isOpen())
+					c.close();
+			}
+			
+			System.out.printf("%d of %d clients saw their match end, %d in sync with the server, %d draws%n",
+							  finished, clients.size(), inSync, draws / 2);
+			System.out.printf("%d clients were sent garbage, %.1f s%n", attacked, elapsed / 1.0e9);
+			
+			if(server != null)
+			{
+				double cpu = (server.getCpuTime() - cpuStart) / (double) elapsed,
+					   rate = (server.getBytesSent() - sentStart) * 1.0e9 / elapsed / (clients.size() / 2);
+				
+				System.out.printf("server: %.1f%% of a core, %.0f bytes/s sent per match, step %s, %d steps missed%n",
+								  100 * cpu, rate, server.getTickTime(), server.getMissedTicks());
+			}
+		}
+		
+		/** A client and the state its policy keeps between steps. */
+		private class Simulated
+		{
+			private MatchClient client;
+			
+			private int planned = -1;
+			
+			private boolean attacked;
+			
+			public Simulated(MatchClient client) {
+				this.client = client;
+			}
+			
+			public void play(boolean finishing) throws IOException
+			{
+				int me = client.getPlayer();
+				
+				if(me < 0)
+					return;
+				
+				attacked |= client.getPendingGarbage(me) > 0;
+				
+				if(finishing)
+					client.send(InputQueue.HARD_DROP);
+				else if(policy == BatchRunner.Policy.BOT)
+				{
+					int spawned = client.getSpawned(me);
+					
+					if(spawned != planned && !client.isClearingRows(me))
+					{
+						planned = spawned;
+						
+						Placement placement = search.search(client.getBoard(me), client.getCurrentPiece(me), null);
+						
+						if(placement != null)
+							for(int move : placement.getMoves())
+								client.send(move);
+					}
+				}
+				else if(rand.nextInt(RANDOM_INPUT_PERIOD) == 0)
+					client.send(rand.nextInt(InputQueue.HARD_DROP + 1));
+				
+				client.flush();
+			}
+		}
+	}
+}
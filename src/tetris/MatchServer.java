@@ -0,0 +1,682 @@
+package tetris;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Hosts head-to-head matches on one non-blocking thread. Connections are
+ * paired in the order they arrive; both players of a match are dealt the
+ * same pieces, and clearing two or more rows at once sends garbage to the
+ * opponent. The server owns both {@link Game}s and steps them at the
+ * live update rate, so clients only ever send input commands.
+ * <p>
+ * Clients send one byte per command, an {@link InputQueue} action. The
+ * server answers with messages describing only what changed since the
+ * last step: the board cells that differ from what was sent before, the
+ * piece position, the score and garbage. Both players' changes go to both
+ * clients, batched into one write per client per step.
+ * <p>
+ * Message layout, big-endian, each starting with its type byte:
+ * <ul>
+ * <li>{@link #START}: your player number</li>
+ * <li>{@link #CELLS}: player, a short count and count times row, column, colour</li>
+ * <li>{@link #PIECE}: player, type, orientation, row, column, next type,
+ * pieces spawned mod 256, flags ({@link #CLEARING})</li>
+ * <li>{@link #SCORE}: player, int score</li>
+ * <li>{@link #GARBAGE}: player, garbage rows now waiting for it</li>
+ * <li>{@link #OVER}: the winner or -1 for a draw, then an int board
+ * checksum per player</li>
+ * </ul>
+ */
+public class MatchServer implements Runnable
+{
+	public static final byte START = 0, CELLS = 1, PIECE = 2, SCORE = 3, GARBAGE = 4, OVER = 5;
+	
+	/** PIECE flag: filled rows are being removed and the board is about to change. */
+	public static final int CLEARING = 1;
+	
+	public static final int DEFAULT_PORT = 7070;
+	
+	// a client that falls this far behind is disconnected
+	private static final int OUT_BUFFER_SIZE = 16 * 1024;
+	
+	private static final int IN_BUFFER_SIZE = 256;
+	
+	// the most bytes one player's changes in one step can take
+	private static final int MAX_UPDATE_SIZE = 4 + 3 * Board.ROWS * Board.COLS + 9 + 6 + 3;
+	
+	private Selector selector;
+	
+	private ServerSocketChannel server;
+	
+	private List<Match> matches = new ArrayList<Match>();
+	
+	private Player waiting;
+	
+	private PieceGenerator seeds;
+	
+	// one player's changes, encoded once and copied to both clients
+	private ByteBuffer update = ByteBuffer.allocate(MAX_UPDATE_SIZE);
+	
+	// the OVER message, apart from update so ending a match never overwrites changes being sent
+	private ByteBuffer result = ByteBuffer.allocate(2 + 4 * 2);
+	
+	private ByteBuffer in = ByteBuffer.allocate(IN_BUFFER_SIZE);
+	
+	private volatile boolean running;
+	
+	private volatile int matchCount;
+	
+	private volatile long matchesPlayed, bytesSent, bytesReceived, ticks, missedTicks;
+	
+	private volatile long threadId = -1;
+	
+	private LatencyHistogram tickTime = new LatencyHistogram();
+	
+	public MatchServer(int port) throws IOException {
+		this(new InetSocketAddress(port), new Random().nextLong());
+	}
+	
+	/** A server on the given address; every match is seeded from seed. */
+	public MatchServer(InetSocketAddress address, long seed) throws IOException
+	{
+		seeds = PieceGenerator.create(PieceGenerator.Mode.BAG, seed);
+		
+		selector = Selector.open();
+		
+		server = ServerSocketChannel.open();
+		server.configureBlocking(false);
+		server.bind(address);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+	}
+	
+	/**
+	 * Usage: {@code java -jar tetris-clone.jar server [-port N]}. Prints
+	 * the load every ten seconds.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		int port = DEFAULT_PORT;
+		
+		for(int i = 0; i < args.length; i++)
+		{
+			if(args[i].equals("-port"))
+				port = Integer.parseInt(args[++i]);
+			else
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+		}
+		
+		MatchServer server = new MatchServer(port);
+		
+		new Thread(server, "Match Server").start();
+		
+		System.out.println("Listening on port " + server.getPort());
+		
+		while(true)
+		{
+			Thread.sleep(10000);
+			
+			System.out.println(server);
+		}
+	}
+	
+	public void run()
+	{
+		running = true;
+		
+		threadId = Thread.currentThread().getId();
+		
+		long deadline = System.nanoTime();
+		
+		try {
+			while(running)
+			{
+				long wait = deadline - System.nanoTime();
+				
+				if(wait > 0)
+					selector.select(Math.max(1, wait / 1000000));
+				else
+					selector.selectNow();
+				
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				
+				while(keys.hasNext())
+				{
+					SelectionKey key = keys.next();
+					
+					keys.remove();
+					
+					if(!key.isValid())
+						continue;
+					
+					if(key.isAcceptable())
+						accept();
+					else
+					{
+						Player player = (Player) key.attachment();
+						
+						try {
+							if(key.isReadable())
+								read(player);
+							
+							if(key.isValid() && key.isWritable())
+								flush(player);
+						} catch (IOException e) {
+							disconnect(player);
+						}
+					}
+				}
+				
+				long now = System.nanoTime();
+				
+				if(now - deadline >= 0)
+				{
+					tick();
+					
+					tickTime.record(System.nanoTime() - now);
+					
+					deadline += BatchRunner.STEP_NANOS;
+					
+					// after a stall, skip the missed steps rather than race to catch up
+					if(now - deadline > BatchRunner.STEP_NANOS)
+					{
+						missedTicks += (now - deadline) / BatchRunner.STEP_NANOS;
+						
+						deadline = now;
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Match server failed", e);
+		} finally {
+			close();
+		}
+	}
+	
+	private void accept() throws IOException
+	{
+		SocketChannel channel = server.accept();
+		
+		if(channel == null)
+			return;
+		
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		
+		Player player = new Player(channel);
+		
+		player.key = channel.register(selector, SelectionKey.OP_READ, player);
+		
+		if(waiting == null)
+			waiting = player;
+		else
+		{
+			long seed = seeds.split().getSeed();
+			
+			matches.add(new Match(waiting, player, seed));
+			
+			matchCount = matches.size();
+			
+			waiting = null;
+		}
+	}
+	
+	/** Applies every command the client has sent; they take effect on the next step. */
+	private void read(Player player) throws IOException
+	{
+		in.clear();
+		
+		int count = player.channel.read(in);
+		
+		if(count < 0)
+		{
+			disconnect(player);
+			
+			return;
+		}
+		
+		bytesReceived += count;
+		
+		if(player.match == null || player.match.over)
+			return;
+		
+		for(int i = 0; i < count; i++)
+		{
+			int action = in.get(i);
+			
+			if(action < 0 || action > InputQueue.HARD_DROP)
+				throw new IOException("Bad command " + action);
+			
+			InputQueue.apply(player.game, action);
+		}
+	}
+	
+	private void tick()
+	{
+		ticks++;
+		
+		for(int i = 0; i < matches.size(); i++)
+		{
+			Match match = matches.get(i);
+			
+			if(!match.over)
+				match.step();
+			
+			for(Player player : match.players)
+				if(player.channel.isOpen())
+					try {
+						flush(player);
+					} catch (IOException e) {
+						disconnect(player);
+					}
+			
+			if(match.over && !match.players[0].channel.isOpen() && !match.players[1].channel.isOpen())
+			{
+				matches.set(i, matches.get(matches.size() - 1));
+				matches.remove(matches.size() - 1);
+				
+				i--;
+				
+				matchesPlayed++;
+			}
+		}
+		
+		matchCount = matches.size();
+	}
+	
+	/** Writes as much as the socket takes, waiting for OP_WRITE for the rest. */
+	private void flush(Player player) throws IOException
+	{
+		ByteBuffer out = player.out;
+		
+		if(out.position() == 0)
+			return;
+		
+		out.flip();
+		
+		bytesSent += player.channel.write(out);
+		
+		out.compact();
+		
+		int ops = out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+		
+		if(player.key.interestOps() != ops)
+			player.key.interestOps(ops);
+		
+		// the match ended and everything was sent; the client closes once it has read it all
+		if(out.position() == 0 && player.match != null && player.match.over && !player.finished)
+		{
+			player.finished = true;
+			
+			player.channel.shutdownOutput();
+		}
+	}
+	
+	private void disconnect(Player player)
+	{
+		try {
+			player.channel.close();
+		} catch (IOException e) {}
+		
+		if(player == waiting)
+			waiting = null;
+		
+		// the player left, so the opponent wins
+		if(player.match != null && !player.match.over)
+			player.match.end(player.opponent);
+	}
+	
+	/** The port actually bound, which differs from the requested one for port 0. */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+	
+	public int getMatchCount() {
+		return matchCount;
+	}
+	
+	/** Matches that have ended and been cleaned up. */
+	public long getMatchesPlayed() {
+		return matchesPlayed;
+	}
+	
+	public long getBytesSent() {
+		return bytesSent;
+	}
+	
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+	
+	public long getTicks() {
+		return ticks;
+	}
+	
+	public long getMissedTicks() {
+		return missedTicks;
+	}
+	
+	/** How long stepping and sending every match took, per step. */
+	public LatencyHistogram getTickTime() {
+		return tickTime;
+	}
+	
+	/** CPU time the server thread has used, or -1 before it has started. */
+	public long getCpuTime()
+	{
+		if(threadId < 0)
+			return -1;
+		
+		return ManagementFactory.getThreadMXBean().getThreadCpuTime(threadId);
+	}
+	
+	public void stop()
+	{
+		running = false;
+		
+		selector.wakeup();
+	}
+	
+	private void close()
+	{
+		try {
+			for(SelectionKey key : selector.keys())
+				key.channel().close();
+			
+			selector.close();
+		} catch (IOException e) {}
+	}
+	
+	public String toString()
+	{
+		return String.format("%d matches, %d played, %d KB sent, %d KB received, step %s, %d steps missed",
+							 matchCount, matchesPlayed, bytesSent >> 10, bytesReceived >> 10, tickTime,
+							 missedTicks);
+	}
+	
+	/** A cheap checksum of a board, sent at the end so clients can check their copy. */
+	static int checksum(Board board)
+	{
+		int hash = 1;
+		
+		for(int row = 0; row < Board.ROWS; row++)
+			for(int col = 0; col < Board.COLS; col++)
+				hash = 31 * hash + board.getColor(row, col);
+		
+		return hash;
+	}
+	
+	/** One side of a match: its connection, game and what its clients were last sent. */
+	private static class Player extends GameAdapter
+	{
+		private SocketChannel channel;
+		
+		private SelectionKey key;
+		
+		private ByteBuffer out = ByteBuffer.allocateDirect(OUT_BUFFER_SIZE);
+		
+		private Match match;
+		
+		private boolean finished;
+		
+		// the out buffer had no room for a message; disconnected once sending is done
+		private boolean overflowed;
+		
+		private Player opponent;
+		
+		private int number;
+		
+		private Game game;
+		
+		// the board as the clients have it
+		private Board sent = new Board();
+		
+		// piece message fields as last sent, or -1 to force a send
+		private int sentPiece = -1, sentNext, sentFlags, sentScore, sentGarbage, spawned;
+		
+		private Random holes;
+		
+		public Player(SocketChannel channel) {
+			this.channel = channel;
+		}
+		
+		public void pieceSpawned() {
+			spawned++;
+		}
+		
+		public void rowsRemoved(int count)
+		{
+			// a double sends one row, a triple two and a tetris four
+			int attack = count == 4 ? 4 : count - 1;
+			
+			if(attack > 0 && !opponent.game.isGameOver())
+				opponent.game.addGarbage(attack, holes.nextInt(Board.COLS));
+		}
+		
+		/** Encodes everything about this player that changed since the last call. */
+		public void encodeChanges(ByteBuffer buffer)
+		{
+			Board board = game.getBoard();
+			
+			int changed = board.getChangedRows();
+			
+			if(changed != 0)
+			{
+				int start = buffer.position();
+				
+				buffer.put(CELLS);
+				buffer.put((byte) number);
+				buffer.putShort((short) 0);
+				
+				int count = 0;
+				
+				for(int row = 0; row < Board.ROWS; row++)
+				{
+					if((changed & (1 << row)) == 0)
+						continue;
+					
+					for(int col = 0; col < Board.COLS; col++)
+					{
+						byte color = board.getColor(row, col);
+						
+						if(color == sent.getColor(row, col))
+							continue;
+						
+						buffer.put((byte) row);
+						buffer.put((byte) col);
+						buffer.put(color);
+						
+						if(color == Board.EMPTY)
+							sent.clear(row, col);
+						else
+							sent.fill(row, col, color);
+						
+						count++;
+					}
+				}
+				
+				if(count == 0)
+					buffer.position(start);
+				else
+					buffer.putShort(start + 2, (short) count);
+				
+				board.clearChangedRows();
+			}
+			
+			Piece piece = game.getCurrentPiece();
+			
+			// type, orientation, row and column packed in one int to compare
+			int packed = piece.getType() << 24 | piece.getOrientation() << 16 | (piece.getRow() & 0xff) << 8 |
+						 piece.getCol() & 0xff;
+			
+			int next = game.getNextPiece().getType() | (spawned & 0xff) << 8,
+				flags = game.isClearingRows() ? CLEARING : 0;
+			
+			if(packed != sentPiece || next != sentNext || flags != sentFlags)
+			{
+				buffer.put(PIECE);
+				buffer.put((byte) number);
+				buffer.put(piece.getType());
+				buffer.put((byte) piece.getOrientation());
+				buffer.put((byte) piece.getRow());
+				buffer.put((byte) piece.getCol());
+				buffer.put(game.getNextPiece().getType());
+				buffer.put((byte) spawned);
+				buffer.put((byte) flags);
+				
+				sentPiece = packed;
+				sentNext = next;
+				sentFlags = flags;
+			}
+			
+			if(game.getScore() != sentScore)
+			{
+				buffer.put(SCORE);
+				buffer.put((byte) number);
+				buffer.putInt(game.getScore());
+				
+				sentScore = game.getScore();
+			}
+			
+			if(game.getPendingGarbage() != sentGarbage)
+			{
+				buffer.put(GARBAGE);
+				buffer.put((byte) number);
+				buffer.put((byte) Math.min(game.getPendingGarbage(), Byte.MAX_VALUE));
+				
+				sentGarbage = game.getPendingGarbage();
+			}
+		}
+	}
+	
+	/** Two players stepped in lockstep until one of them tops out or leaves. */
+	private class Match
+	{
+		private Player[] players;
+		
+		private boolean over;
+		
+		public Match(Player first, Player second, long seed)
+		{
+			players = new Player[] {first, second};
+			
+			Random holes = new Random(seed);
+			
+			for(int i = 0; i < 2; i++)
+			{
+				Player player = players[i];
+				
+				player.match = this;
+				player.opponent = players[1 - i];
+				player.number = i;
+				player.holes = holes;
+				
+				// both sides are dealt the same pieces
+				player.game = new Game(PieceGenerator.create(PieceGenerator.Mode.BAG, seed));
+				player.game.addGameListener(player);
+				
+				player.out.put(START);
+				player.out.put((byte) i);
+			}
+			
+			broadcast();
+			
+			dropOverflowed();
+		}
+		
+		public void step()
+		{
+			for(Player player : players)
+				player.game.update(BatchRunner.STEP);
+			
+			broadcast();
+			
+			// a client dropped for falling behind loses, which ends the match
+			dropOverflowed();
+			
+			if(over)
+				return;
+			
+			boolean firstOver = players[0].game.isGameOver(),
+					secondOver = players[1].game.isGameOver();
+			
+			if(firstOver && secondOver)
+				end(null);
+			else if(firstOver)
+				end(players[1]);
+			else if(secondOver)
+				end(players[0]);
+		}
+		
+		private void broadcast()
+		{
+			for(Player player : players)
+			{
+				update.clear();
+				
+				player.encodeChanges(update);
+				
+				update.flip();
+				
+				for(Player client : players)
+					send(client, update);
+			}
+		}
+		
+		/** Ends the match with the given winner, or a draw for null, and tells both clients. */
+		public void end(Player winner)
+		{
+			over = true;
+			
+			result.clear();
+			result.put(OVER);
+			result.put((byte) (winner == null ? -1 : winner.number));
+			
+			for(Player player : players)
+				result.putInt(checksum(player.game.getBoard()));
+			
+			result.flip();
+			
+			for(Player client : players)
+				send(client, result);
+			
+			dropOverflowed();
+		}
+		
+		/**
+		 * Queues a message for a client. A client without room for it is only
+		 * marked, and disconnected by {@link #dropOverflowed()}, so the match
+		 * cannot end in the middle of sending a step.
+		 */
+		private void send(Player client, ByteBuffer message)
+		{
+			if(!client.channel.isOpen() || client.finished || client.overflowed)
+				return;
+			
+			if(client.out.remaining() < message.remaining())
+			{
+				client.overflowed = true;
+				
+				return;
+			}
+			
+			client.out.put(message.duplicate());
+		}
+		
+		private void dropOverflowed()
+		{
+			for(Player client : players)
+				if(client.overflowed && client.channel.isOpen())
+					disconnect(client);
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package tetris;
+
+/**
+ * A falling tetromino. Pieces only know their position, orientation and
+ * shape; the rules they are checked against live in {@link Board}.
+ */
+public abstract class Piece
+{
+	public static final int TYPES = 7;
+	
+	public static final byte I_TYPE = 1, O_TYPE = 2, T_TYPE = 3, S_TYPE = 4,
+							 Z_TYPE = 5, J_TYPE = 6, L_TYPE = 7;
+	
+	protected int row, col;
+	
+	private byte type;
+	
+	protected int orientation;
+	
+	public Piece(int row, int col, byte type)
+	{
+		this.row = row;
+		this.col = col;
+		
+		this.type = type;
+	}
+	
+	public static Piece create(int type, int row, int col)
+	{
+		if(type == I_TYPE)
+			return new I(row, col);
+		else if(type == O_TYPE)
+			return new O(row, col);
+		else if(type == T_TYPE)
+			return new T(row, col);
+		else if(type == S_TYPE)
+			return new S(row, col);
+		else if(type == Z_TYPE)
+			return new Z(row, col);
+		else if(type == J_TYPE)
+			return new J(row, col);
+		else
+			return new L(row, col);
+	}
+	
+	public abstract Shape shape();
+	
+	public Piece copy()
+	{
+		Piece piece = create(type, row, col);
+		
+		piece.orientation = orientation;
+		
+		return piece;
+	}
+	
+	public void split(Board board)
+	{
+		Shape shape = shape();
+		
+		for(int i = 0; i < Shape.SIZE; i++)
+		{
+			int pieceRow = row + shape.getRow(i),
+				pieceCol = col + shape.getCol(i);
+			
+			if(pieceRow >= 0)
+				board.fill(pieceRow, pieceCol, type);
+		}
+	}
+	
+	public void rotateLeft()
+	{
+		orientation--;
+		if(orientation < 0)
+			orientation = 3;
+	}
+	
+	public void rotateRight()
+	{
+		orientation++;
+		orientation %= 4;
+	}
+	
+	/** Puts the piece straight at a position, without checking collisions. */
+	void moveTo(int row, int col, int orientation)
+	{
+		this.row = row;
+		this.col = col;
+		this.orientation = orientation;
+	}
+	
+	public void moveUp() { row--; }
+	
+	public void moveDown() { row++; }
+	
+	public void moveLeft() { col--; }
+	
+	public void moveRight() { col++; }
+	
+	/** Where the piece would come to rest if dropped straight down. */
+	public int getLandingRow(Board board) {
+		return board.getLandingRow(shape(), row, col);
+	}
+	
+	/** Moves the piece straight down until it rests on the board, as a hard drop does. */
+	public void drop(Board board) {
+		row = getLandingRow(board);
+	}
+	
+	public boolean collides(Board board)
+	{
+		Shape shape = shape();
+		
+		for(int i = 0; i < Shape.SIZE; i++)
+		{
+			int pieceRow = row + shape.getRow(i),
+				pieceCol = col + shape.getCol(i);
+			
+			if(pieceRow < 0)
+				continue;
+			else if(pieceCol < 0 || pieceCol >= Board.COLS ||
+					pieceRow >= Board.ROWS || board.isFilled(pieceRow, pieceCol))
+				return true;
+		}
+		
+		return false;
+	}
+	
+	public int getRow() {
+		return row;
+	}
+	
+	public int getCol() {
+		return col;
+	}
+	
+	public int getOrientation() {
+		return orientation;
+	}
+	
+	public byte getType() {
+		return type;
+	}
+	
+	static class I extends Piece
+	{
+		public I(int row, int col) {
+			super(row, col, I_TYPE);
+		}
+		
+		@Override
+		public Shape shape() {
+			return Shape.I[orientation];
+		}
+	}
+	
+	static class O extends Piece
+	{
+		public O(int row, int col) {
+			super(row, col, O_TYPE);
+		}
+		
+		@Override
+		public Shape shape() {
+			return Shape.O[orientation];
+		}
+	}
+	
+	static class T extends Piece
+	{
+		public T(int row, int col) {
+			super(row, col, T_TYPE);
+		}
+		
+		@Override
+		public Shape shape() {
+			return Shape.T[orientation];
+		}
+	}
+	
+	static class S extends Piece
+	{
+		public S(int row, int col) {
+			super(row, col, S_TYPE);
+		}
+		
+		@Override
+		public Shape shape() {
+			return Shape.S[orientation];
+		}
+	}
+	
+	static class Z extends Piece
+	{
+		public Z(int row, int col) {
+			super(row, col, Z_TYPE);
+		}
+		
+		@Override
+		public Shape shape() {
+			return Shape.Z[orientation];
+		}
+	}
+	
+	static class J extends Piece
+	{
+		public J(int row, int col) {
+			super(row, col, J_TYPE);
+		}
+		
+		@Override
+		public Shape shape() {
+			return Shape.J[orientation];
+		}
+	}
+	
+	static class L extends Piece
+	{
+		public L(int row, int col) {
+			super(row, col, L_TYPE);
+		}
+		
+		@Override
+		public Shape shape() {
+			return Shape.L[orientation];
+		}
+	}
+}
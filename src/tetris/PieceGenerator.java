@@ -0,0 +1,306 @@
+package tetris;
+import java.nio.ByteBuffer;
+
+/**
+ * Deals the sequence of piece types for a {@link Game}. A generator is
+ * fully determined by its mode and seed, so recording those two is
+ * enough to replay the pieces of any game. Upcoming pieces are generated
+ * into a small ring as they are peeked at, so looking ahead costs nothing
+ * beyond generating the pieces early.
+ * <p>
+ * Generators are not thread-safe. For parallel simulations give each
+ * thread its own generator from {@link #split()}.
+ * <p>
+ * Random numbers come from a SplitMix64 sequence kept in a single long,
+ * so the complete generator state can be saved with the game.
+ */
+public abstract class PieceGenerator
+{
+	public enum Mode {UNIFORM, BAG, HISTORY}
+	
+	// values() copies its array on every call
+	static final Mode[] MODES = Mode.values();
+	
+	public static final int MAX_LOOKAHEAD = 16;
+	
+	// bytes each mode may use for its own state in save()
+	private static final int MODE_STATE_SIZE = 8;
+	
+	/** Bytes written by {@link #save}. */
+	public static final int STATE_SIZE = 1 + 8 + 8 + 2 + MAX_LOOKAHEAD + MODE_STATE_SIZE;
+	
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	
+	private final Mode mode;
+	
+	private long seed, state;
+	
+	private final byte[] queue = new byte[MAX_LOOKAHEAD];
+	
+	private int head, size;
+	
+	protected PieceGenerator(Mode mode, long seed)
+	{
+		this.mode = mode;
+		this.seed = seed;
+		
+		state = seed;
+	}
+	
+	public static PieceGenerator create(Mode mode, long seed)
+	{
+		if(mode == Mode.BAG)
+			return new Bag(seed);
+		else if(mode == Mode.HISTORY)
+			return new History(seed);
+		else
+			return new Uniform(seed);
+	}
+	
+	/** Picks the type of the piece after everything generated so far. */
+	protected abstract byte generate();
+	
+	protected abstract void saveMode(ByteBuffer buffer);
+	
+	protected abstract void restoreMode(ByteBuffer buffer);
+	
+	protected long nextLong()
+	{
+		long z = state += GOLDEN_GAMMA;
+		
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		
+		return z ^ (z >>> 31);
+	}
+	
+	/** Uniform in [0, bound); the bias is below bound / 2^32. */
+	protected int nextInt(int bound) {
+		return (int) (((nextLong() >>> 32) * bound) >>> 32);
+	}
+	
+	/** Writes the whole generator state in {@link #STATE_SIZE} bytes. */
+	public void save(ByteBuffer buffer)
+	{
+		int start = buffer.position();
+		
+		buffer.put((byte) mode.ordinal());
+		buffer.putLong(seed);
+		buffer.putLong(state);
+		buffer.put((byte) head);
+		buffer.put((byte) size);
+		buffer.put(queue);
+		
+		saveMode(buffer);
+		
+		buffer.position(start + STATE_SIZE);
+	}
+	
+	/**
+	 * Reads a state written by {@link #save} into the generator of the
+	 * saved mode, from an array indexed by mode ordinal, and returns it.
+	 * A generator is created and kept in the array the first time a mode
+	 * is restored; after that restoring allocates nothing.
+	 */
+	public static PieceGenerator restore(ByteBuffer buffer, PieceGenerator[] generators)
+	{
+		int start = buffer.position();
+		
+		Mode mode = MODES[buffer.get()];
+		
+		long seed = buffer.getLong();
+		
+		PieceGenerator generator = generators[mode.ordinal()];
+		
+		if(generator == null)
+			generator = generators[mode.ordinal()] = create(mode, seed);
+		
+		generator.seed = seed;
+		generator.state = buffer.getLong();
+		generator.head = buffer.get();
+		generator.size = buffer.get();
+		
+		buffer.get(generator.queue);
+		
+		generator.restoreMode(buffer);
+		
+		buffer.position(start + STATE_SIZE);
+		
+		return generator;
+	}
+	
+	/** Removes and returns the next piece type. */
+	public byte next()
+	{
+		byte type = peek(0);
+		
+		head = (head + 1) % MAX_LOOKAHEAD;
+		size--;
+		
+		return type;
+	}
+	
+	/** The type {@link #next()} will return after k more calls. */
+	public byte peek(int k)
+	{
+		if(k < 0 || k >= MAX_LOOKAHEAD)
+			throw new IllegalArgumentException("Lookahead must be below " + MAX_LOOKAHEAD + ": " + k);
+		
+		while(size <= k)
+		{
+			queue[(head + size) % MAX_LOOKAHEAD] = generate();
+			
+			size++;
+		}
+		
+		return queue[(head + k) % MAX_LOOKAHEAD];
+	}
+	
+	/**
+	 * A new generator of the same mode, seeded from this one. Splitting
+	 * the same generator the same way always gives the same children.
+	 */
+	public PieceGenerator split() {
+		return create(mode, nextLong());
+	}
+	
+	public Mode getMode() {
+		return mode;
+	}
+	
+	public long getSeed() {
+		return seed;
+	}
+	
+	/** Every type equally likely on every draw, as the game always did. */
+	static class Uniform extends PieceGenerator
+	{
+		public Uniform(long seed) {
+			super(Mode.UNIFORM, seed);
+		}
+		
+		protected byte generate() {
+			return (byte) (1 + nextInt(Piece.TYPES));
+		}
+		
+		protected void saveMode(ByteBuffer buffer) {}
+		
+		protected void restoreMode(ByteBuffer buffer) {}
+	}
+	
+	/**
+	 * Deals shuffled bags of all seven types, so there are at most twelve
+	 * pieces between two of the same type.
+	 */
+	static class Bag extends PieceGenerator
+	{
+		private byte[] bag = new byte[Piece.TYPES];
+		
+		private int left;
+		
+		public Bag(long seed) {
+			super(Mode.BAG, seed);
+		}
+		
+		protected byte generate()
+		{
+			if(left == 0)
+			{
+				for(int i = 0; i < bag.length; i++)
+					bag[i] = (byte) (1 + i);
+				
+				left = bag.length;
+			}
+			
+			// draw without replacement from the part of the bag still left
+			int i = nextInt(left);
+			
+			byte type = bag[i];
+			
+			bag[i] = bag[--left];
+			
+			return type;
+		}
+		
+		protected void saveMode(ByteBuffer buffer)
+		{
+			buffer.put(bag);
+			buffer.put((byte) left);
+		}
+		
+		protected void restoreMode(ByteBuffer buffer)
+		{
+			buffer.get(bag);
+			left = buffer.get();
+		}
+	}
+	
+	/**
+	 * Rerolls a few times to avoid the last four types dealt, which makes
+	 * droughts and repeats rare without the fixed rhythm of a bag. The
+	 * first piece is never an S, Z or O, so the game never starts with an
+	 * overhang.
+	 */
+	static class History extends PieceGenerator
+	{
+		private static final int ROLLS = 4;
+		
+		private byte[] history = {Piece.Z_TYPE, Piece.S_TYPE, Piece.Z_TYPE, Piece.S_TYPE};
+		
+		private int oldest;
+		
+		private boolean first = true;
+		
+		public History(long seed) {
+			super(Mode.HISTORY, seed);
+		}
+		
+		protected byte generate()
+		{
+			byte type = roll();
+			
+			if(first)
+			{
+				while(type == Piece.S_TYPE || type == Piece.Z_TYPE || type == Piece.O_TYPE)
+					type = roll();
+				
+				first = false;
+			}
+			else
+				for(int roll = 1; roll < ROLLS && inHistory(type); roll++)
+					type = roll();
+			
+			history[oldest] = type;
+			oldest = (oldest + 1) % history.length;
+			
+			return type;
+		}
+		
+		private byte roll() {
+			return (byte) (1 + nextInt(Piece.TYPES));
+		}
+		
+		protected void saveMode(ByteBuffer buffer)
+		{
+			buffer.put(history);
+			buffer.put((byte) oldest);
+			buffer.put((byte) (first ? 1 : 0));
+		}
+		
+		protected void restoreMode(ByteBuffer buffer)
+		{
+			buffer.get(history);
+			oldest = buffer.get();
+			first = buffer.get() != 0;
+		}
+		
+		private boolean inHistory(byte type)
+		{
+			for(byte old : history)
+				if(old == type)
+					return true;
+			
+			return false;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package tetris;
+
+/**
+ * Where {@link PlacementSearch} decided to put a piece, and how to get it
+ * there from where it started: rotate and shift (in the recorded order),
+ * then hard drop.
+ */
+public final class Placement
+{
+	private final int orientation, col, row;
+	
+	// positive is clockwise (rotateRight), negative counter-clockwise
+	private final int rotations, shift;
+	
+	private final boolean shiftFirst;
+	
+	private final double score;
+	
+	Placement(int orientation, int col, int row, int rotations, int shift, boolean shiftFirst, double score)
+	{
+		this.orientation = orientation;
+		this.col = col;
+		this.row = row;
+		this.rotations = rotations;
+		this.shift = shift;
+		this.shiftFirst = shiftFirst;
+		this.score = score;
+	}
+	
+	Placement scored(int row, double score) {
+		return new Placement(orientation, col, row, rotations, shift, shiftFirst, score);
+	}
+	
+	/** The placement as {@link InputQueue} actions, ending with a hard drop. */
+	public int[] getMoves()
+	{
+		int[] moves = new int[Math.abs(rotations) + Math.abs(shift) + 1];
+		
+		int i = 0;
+		
+		if(shiftFirst)
+			i = addShifts(moves, i);
+		
+		for(int r = 0; r < Math.abs(rotations); r++)
+			moves[i++] = rotations > 0 ? InputQueue.ROTATE_RIGHT : InputQueue.ROTATE_LEFT;
+		
+		if(!shiftFirst)
+			i = addShifts(moves, i);
+		
+		moves[i] = InputQueue.HARD_DROP;
+		
+		return moves;
+	}
+	
+	private int addShifts(int[] moves, int i)
+	{
+		for(int s = 0; s < Math.abs(shift); s++)
+			moves[i++] = shift > 0 ? InputQueue.MOVE_RIGHT : InputQueue.MOVE_LEFT;
+		
+		return i;
+	}
+	
+	public int getOrientation() {
+		return orientation;
+	}
+	
+	public int getCol() {
+		return col;
+	}
+	
+	/** The row the piece locks at. */
+	public int getRow() {
+		return row;
+	}
+	
+	public double getScore() {
+		return score;
+	}
+	
+	public String toString() {
+		return "Placement[orientation=" + orientation + ", col=" + col + ", row=" + row + ", score=" + score + "]";
+	}
+}
@@ -0,0 +1,344 @@
+package tetris;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds the best place for the current piece by trying every placement
+ * reachable with rotations and shifts followed by a hard drop, optionally
+ * looking one piece ahead. Moves are checked with {@link Piece#collides}
+ * and placed with {@link Piece#split}, exactly as {@link Game} does, so
+ * the bot cannot reach anything a player could not.
+ * <p>
+ * The placements of the current piece are split across a fork-join pool.
+ * Each worker evaluates on its own pair of scratch boards, refilled with
+ * {@link Board#copyFrom}, so nothing is allocated per position.
+ */
+public class PlacementSearch
+{
+	// current-piece placements per fork-join leaf
+	private static final int THRESHOLD = 4;
+	
+	// rotations tried from the starting orientation: none, right, twice, left
+	private static final int[] ROTATIONS = {0, 1, 2, -1};
+	
+	// pivots can sit up to two columns outside the board
+	private static final int COL_OFFSET = 2, COL_RANGE = Board.COLS + 2 * COL_OFFSET;
+	
+	private final Heuristic heuristic;
+	
+	private final ForkJoinPool pool;
+	
+	private final LongAdder evaluated = new LongAdder();
+	
+	private final ThreadLocal<Board[]> scratch = new ThreadLocal<Board[]>() {
+		protected Board[] initialValue() {
+			return new Board[] {new Board(), new Board()};
+		}
+	};
+	
+	public PlacementSearch() {
+		this(WeightedHeuristic.DEFAULT);
+	}
+	
+	public PlacementSearch(Heuristic heuristic) {
+		this(heuristic, ForkJoinPool.commonPool());
+	}
+	
+	/** @param pool where to run the search, or null to search on the calling thread */
+	public PlacementSearch(Heuristic heuristic, ForkJoinPool pool)
+	{
+		this.heuristic = heuristic;
+		this.pool = pool;
+	}
+	
+	/**
+	 * Returns the best placement of current on the board, or null if it
+	 * cannot be placed anywhere. When next is not null each placement is
+	 * scored by the best follow-up placement of next.
+	 */
+	public Placement search(Board board, Piece current, Piece next)
+	{
+		List<Placement> candidates = reachable(board, current);
+		
+		if(candidates.isEmpty())
+			return null;
+		
+		SearchTask task = new SearchTask(board, current, next, candidates, 0, candidates.size());
+		
+		if(pool == null)
+			return task.evaluate();
+		
+		return pool.invoke(task);
+	}
+	
+	/** Positions scored so far, across every search. */
+	public long getEvaluatedCount() {
+		return evaluated.sum();
+	}
+	
+	/** Every distinct orientation and column the piece can reach. */
+	private static List<Placement> reachable(Board board, Piece current)
+	{
+		List<Placement> placements = new ArrayList<Placement>();
+		
+		boolean[] found = new boolean[4 * COL_RANGE];
+		
+		Piece piece = current.copy();
+		
+		int row = current.getRow(),
+			col = current.getCol(),
+			orientation = current.getOrientation();
+		
+		if(piece.collides(board))
+			return placements;
+		
+		// rotate in place, then shift
+		for(int rotations : ROTATIONS)
+		{
+			piece.moveTo(row, col, orientation);
+			
+			if(!rotate(board, piece, rotations))
+				continue;
+			
+			for(int dir = -1; dir <= 1; dir += 2)
+			{
+				piece.moveTo(row, col, piece.getOrientation());
+				
+				for(int shift = 0; !piece.collides(board); shift += dir)
+				{
+					add(placements, found, piece, rotations, shift, false);
+					
+					shift(piece, dir);
+				}
+			}
+		}
+		
+		// shift, then rotate where the rotation was blocked at the start
+		for(int dir = -1; dir <= 1; dir += 2)
+		{
+			piece.moveTo(row, col, orientation);
+			
+			for(int shift = 0; !piece.collides(board); shift += dir)
+			{
+				int shifted = piece.getCol();
+				
+				for(int rotations : ROTATIONS)
+				{
+					piece.moveTo(row, shifted, orientation);
+					
+					if(rotate(board, piece, rotations))
+						add(placements, found, piece, rotations, shift, true);
+				}
+				
+				piece.moveTo(row, shifted + dir, orientation);
+			}
+		}
+		
+		return placements;
+	}
+	
+	private static void add(List<Placement> placements, boolean[] found, Piece piece,
+							int rotations, int shift, boolean shiftFirst)
+	{
+		int i = piece.getOrientation() * COL_RANGE + piece.getCol() + COL_OFFSET;
+		
+		if(found[i])
+			return;
+		
+		found[i] = true;
+		
+		placements.add(new Placement(piece.getOrientation(), piece.getCol(), piece.getRow(),
+									 rotations, shift, shiftFirst, 0));
+	}
+	
+	/** Rotates one step at a time as the game would; false if any step collides. */
+	private static boolean rotate(Board board, Piece piece, int rotations)
+	{
+		for(int r = 0; r < Math.abs(rotations); r++)
+		{
+			if(rotations > 0)
+				piece.rotateRight();
+			else
+				piece.rotateLeft();
+			
+			if(piece.collides(board))
+				return false;
+		}
+		
+		return true;
+	}
+	
+	private static void shift(Piece piece, int dir)
+	{
+		if(dir < 0)
+			piece.moveLeft();
+		else
+			piece.moveRight();
+	}
+	
+	/** Removes filled rows the way {@link Game} does once the clear animation ends. */
+	private static int removeFilledRows(Board board)
+	{
+		int removed = 0;
+		
+		for(int row = 1; row < Board.ROWS; row++)
+		{
+			if(board.isFilledRow(row))
+			{
+				board.dropRow(row);
+				
+				removed++;
+			}
+		}
+		
+		return removed;
+	}
+	
+	/** Best score over every placement of piece reachable by rotating then shifting. */
+	private double lookahead(Board board, Board after, Piece piece, int linesCleared)
+	{
+		int row = piece.getRow(),
+			col = piece.getCol(),
+			orientation = piece.getOrientation(),
+			count = 0;
+		
+		// the next piece would spawn into the stack: game over
+		if(piece.collides(board))
+			return Double.NEGATIVE_INFINITY;
+		
+		double best = Double.NEGATIVE_INFINITY;
+		
+		for(int rotations : ROTATIONS)
+		{
+			piece.moveTo(row, col, orientation);
+			
+			if(!rotate(board, piece, rotations))
+				continue;
+			
+			int rotated = piece.getOrientation();
+			
+			for(int dir = -1; dir <= 1; dir += 2)
+			{
+				piece.moveTo(row, dir < 0 ? col : col + 1, rotated);
+				
+				while(!piece.collides(board))
+				{
+					int c = piece.getCol();
+					
+					piece.drop(board);
+					
+					after.copyFrom(board);
+					
+					piece.split(after);
+					
+					best = Math.max(best, heuristic.evaluate(after, linesCleared + removeFilledRows(after)));
+					
+					count++;
+					
+					piece.moveTo(row, c + dir, rotated);
+				}
+			}
+		}
+		
+		piece.moveTo(row, col, orientation);
+		
+		evaluated.add(count);
+		
+		return best;
+	}
+	
+	private class SearchTask extends RecursiveTask<Placement>
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private Board board;
+		
+		private Piece current, next;
+		
+		private List<Placement> candidates;
+		
+		private int start, end;
+		
+		public SearchTask(Board board, Piece current, Piece next, List<Placement> candidates, int start, int end)
+		{
+			this.board = board;
+			this.current = current;
+			this.next = next;
+			this.candidates = candidates;
+			this.start = start;
+			this.end = end;
+		}
+		
+		protected Placement compute()
+		{
+			if(end - start > THRESHOLD)
+			{
+				int mid = (start + end) >>> 1;
+				
+				SearchTask left = new SearchTask(board, current, next, candidates, start, mid);
+				
+				left.fork();
+				
+				Placement right = new SearchTask(board, current, next, candidates, mid, end).compute();
+				
+				return better(left.join(), right);
+			}
+			
+			return evaluate();
+		}
+		
+		/** Scores this task's candidates one after another. */
+		private Placement evaluate()
+		{
+			Board[] boards = scratch.get();
+			
+			Piece piece = current.copy(),
+				  follow = next == null ? null : next.copy();
+			
+			Placement best = null;
+			
+			for(int i = start; i < end; i++)
+			{
+				Placement candidate = candidates.get(i);
+				
+				piece.moveTo(candidate.getRow(), candidate.getCol(), candidate.getOrientation());
+				
+				piece.drop(board);
+				
+				boards[0].copyFrom(board);
+				
+				piece.split(boards[0]);
+				
+				int lines = removeFilledRows(boards[0]);
+				
+				double score;
+				
+				if(follow == null)
+				{
+					score = heuristic.evaluate(boards[0], lines);
+					
+					evaluated.increment();
+				}
+				else
+					score = lookahead(boards[0], boards[1], follow, lines);
+				
+				best = better(best, candidate.scored(piece.getRow(), score));
+			}
+			
+			return best;
+		}
+	}
+	
+	private static Placement better(Placement a, Placement b)
+	{
+		if(a == null)
+			return b;
+		else if(b == null)
+			return a;
+		
+		return b.getScore() > a.getScore() ? b : a;
+	}
+}
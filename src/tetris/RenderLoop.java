@@ -0,0 +1,118 @@
+package tetris;
+
+/**
+ * Presents frames on its own thread at a target frame rate, independent
+ * of the simulation's {@link Updater}. Each frame draws the newest
+ * {@link Snapshot} the simulation has published.
+ */
+public class RenderLoop implements Runnable
+{
+	public final static int DEFAULT_FRAME_RATE = 60;
+	
+	private UI ui;
+	
+	private volatile boolean running;
+	
+	private Thread thread;
+	
+	private volatile long frameNanos;
+	
+	private volatile int fps;
+	
+	private volatile long missedFrames;
+	
+	private LatencyHistogram frameTime, renderTime;
+	
+	public RenderLoop(UI ui)
+	{
+		this.ui = ui;
+		
+		setFrameRate(DEFAULT_FRAME_RATE);
+		
+		frameTime = new LatencyHistogram();
+		renderTime = new LatencyHistogram();
+		
+		thread = new Thread(this, "Renderer");
+	}
+	
+	public void start()
+	{
+		if(!running)
+		{
+			running = true;
+			
+			thread.start();
+		}
+	}
+	
+	public void stop()
+	{
+		if(running)
+			running = false;
+	}
+	
+	public void setFrameRate(int framesPerSecond) {
+		frameNanos = 1000000000L / framesPerSecond;
+	}
+	
+	public void run()
+	{
+		long now = System.nanoTime(),
+			 last = now,
+			 nextFrame = now,
+			 second = now;
+		
+		int frames = 0;
+		
+		while(running)
+		{
+			now = System.nanoTime();
+			
+			ui.update((now - last) / 1.0e9);
+			
+			renderTime.record(System.nanoTime() - now);
+			frameTime.record(now - last);
+			
+			last = now;
+			
+			frames++;
+			
+			if(now - second >= 1000000000L)
+			{
+				fps = frames;
+				frames = 0;
+				second = now;
+			}
+			
+			nextFrame += frameNanos;
+			
+			// fell behind by more than a frame, don't try to make it up
+			if(nextFrame - System.nanoTime() < -frameNanos)
+			{
+				nextFrame = System.nanoTime();
+				
+				missedFrames++;
+			}
+			
+			Updater.waitUntil(nextFrame);
+		}
+	}
+	
+	public int getFPS() {
+		return fps;
+	}
+	
+	public long getMissedFrames() {
+		return missedFrames;
+	}
+	
+	/** Time between the starts of consecutive frames. */
+	public LatencyHistogram getFrameTime() {
+		return frameTime;
+	}
+	
+	/** Time spent drawing and presenting each frame. */
+	public LatencyHistogram getRenderTime() {
+		return renderTime;
+	}
+}
@@ -0,0 +1,246 @@
+package tetris;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Paints a {@link Snapshot} of a game onto any Graphics, on or off screen.
+ * The playfield is kept in a cached image that is updated incrementally:
+ * the background and grid lines are drawn once, and each frame only the
+ * cells that changed are repainted over them. The ghost of the current
+ * piece, where it would land, is drawn in the same pass.
+ */
+public class Renderer
+{
+	private static final int COLS = Board.COLS, ROWS = Board.ROWS;
+	
+	private static final int COL_WIDTH = Tetris.COL_WIDTH,
+							 ROW_HEIGHT = Tetris.ROW_HEIGHT;
+	
+	public static final Color BACKGROUND = new Color(3, 25, 42);
+	
+	// added to a piece type for a cell showing the ghost of that type
+	private static final byte GHOST = 0x40;
+	
+	// tiles for the playfield, at its cell size, and for loose pieces at the base size
+	private TileAtlas atlas, pieceAtlas;
+	
+	private int cellWidth, cellHeight;
+	
+	// empty playfield with grid lines, painted once per cell size
+	private BufferedImage background;
+	
+	private BufferedImage playfield;
+	
+	// cell colours wanted this frame, and those currently in playfield
+	private byte[] cells, shown;
+	
+	public Renderer() throws IOException
+	{
+		BufferedImage pieceImg = ImageIO.read(new File("tetrominoes.png"));
+		
+		atlas = new TileAtlas(pieceImg);
+		
+		pieceAtlas = new TileAtlas(pieceImg);
+		
+		cells = new byte[ROWS * COLS];
+		shown = new byte[ROWS * COLS];
+		
+		setCellSize(COL_WIDTH, ROW_HEIGHT);
+	}
+	
+	/**
+	 * Sets the size, in pixels, each playfield cell is drawn at. Tiles and
+	 * the background are re-rendered at that size so the playfield image
+	 * can be shown without scaling.
+	 */
+	public void setCellSize(int width, int height)
+	{
+		if(width == cellWidth && height == cellHeight)
+			return;
+		
+		cellWidth = width;
+		cellHeight = height;
+		
+		atlas.setTileSize(width, height);
+		
+		background = TileAtlas.createImage(COLS * width, ROWS * height);
+		
+		paintBackground(background.getGraphics());
+		
+		playfield = TileAtlas.createImage(COLS * width, ROWS * height);
+		
+		invalidate();
+	}
+	
+	/**
+	 * Sets the largest whole-pixel cell size, the same across as down, at
+	 * which the playfield fits in an area of the given size.
+	 */
+	public void fitTo(int width, int height)
+	{
+		int cell = Math.max(1, Math.min(width / COLS, height / ROWS));
+		
+		setCellSize(cell, cell);
+	}
+	
+	private void paintBackground(Graphics g)
+	{
+		g.setColor(BACKGROUND);
+		
+		g.fillRect(0, 0, COLS * cellWidth, ROWS * cellHeight);
+		
+		g.setColor(Color.BLACK);
+		
+		for(int row = 0; row < ROWS; row++)
+		{
+			for(int col = 0; col < COLS; col++)
+			{
+				int x = col * cellWidth,
+					y = row * cellHeight;
+				
+				g.drawRect(x, y, cellWidth, cellHeight);
+			}
+		}
+		
+		g.dispose();
+	}
+	
+	/**
+	 * Brings the cached playfield image up to date with the snapshot,
+	 * redrawing only cells whose contents changed since the last call.
+	 * Returns false, having drawn nothing, if no cell changed.
+	 */
+	public boolean update(Snapshot snapshot)
+	{
+		Board board = snapshot.getBoard();
+		
+		for(int row = 0; row < ROWS; row++)
+			for(int col = 0; col < COLS; col++)
+				cells[row * COLS + col] = board.getColor(row, col);
+		
+		Piece currPiece = snapshot.getCurrentPiece();
+		
+		Shape shape = currPiece.shape();
+		
+		int ghostRow = snapshot.getGhostRow();
+		
+		if(!snapshot.isGameOver() && ghostRow > currPiece.getRow())
+		{
+			for(int i = 0; i < Shape.SIZE; i++)
+			{
+				int row = ghostRow + shape.getRow(i),
+					col = currPiece.getCol() + shape.getCol(i);
+				
+				if(row >= 0 && row < ROWS && col >= 0 && col < COLS)
+					cells[row * COLS + col] = (byte) (GHOST | currPiece.getType());
+			}
+		}
+		
+		for(int i = 0; i < Shape.SIZE; i++)
+		{
+			int row = currPiece.getRow() + shape.getRow(i),
+				col = currPiece.getCol() + shape.getCol(i);
+			
+			if(row >= 0 && row < ROWS && col >= 0 && col < COLS)
+				cells[row * COLS + col] = currPiece.getType();
+		}
+		
+		Graphics g = null;
+		
+		for(int i = 0; i < cells.length; i++)
+		{
+			if(cells[i] == shown[i])
+				continue;
+			
+			if(g == null)
+				g = playfield.createGraphics();
+			
+			paintCell(g, i / COLS, i % COLS, cells[i]);
+			
+			shown[i] = cells[i];
+		}
+		
+		if(g == null)
+			return false;
+		
+		g.dispose();
+		
+		return true;
+	}
+	
+	private void paintCell(Graphics g, int row, int col, byte color)
+	{
+		int x = col * cellWidth,
+			y = row * cellHeight;
+		
+		g.drawImage(background, x, y, x + cellWidth, y + cellHeight,
+								x, y, x + cellWidth, y + cellHeight, null);
+		
+		if((color & GHOST) != 0)
+			atlas.paintGhost(g, (byte) (color & ~GHOST), x, y);
+		else if(color != Board.EMPTY)
+			atlas.paint(g, color, x, y);
+		
+		// the cell's own top and left grid lines; the right and bottom
+		// ones belong to its neighbours
+		g.setColor(Color.BLACK);
+		
+		g.drawLine(x, y, x + cellWidth - 1, y);
+		g.drawLine(x, y, x, y + cellHeight - 1);
+	}
+	
+	/** Forces the next {@link #update} to redraw every cell. */
+	public void invalidate() {
+		Arrays.fill(shown, (byte) -1);
+	}
+	
+	/** The playfield as of the last {@link #update}, one cell size per cell. */
+	public BufferedImage getPlayfield() {
+		return playfield;
+	}
+	
+	/**
+	 * Draws the playfield, as of the last {@link #update}, centred in an
+	 * area of the given size; the leftover is filled with the background.
+	 */
+	public void present(Graphics g, int width, int height)
+	{
+		int x = (width - playfield.getWidth()) / 2,
+			y = (height - playfield.getHeight()) / 2;
+		
+		if(x > 0 || y > 0)
+		{
+			g.setColor(BACKGROUND);
+			g.fillRect(0, 0, width, height);
+		}
+		
+		g.drawImage(playfield, x, y, null);
+	}
+	
+	public void paint(Graphics g, Snapshot snapshot)
+	{
+		update(snapshot);
+		
+		g.drawImage(playfield, 0, 0, null);
+	}
+	
+	/** Paints a piece at the base cell size, with its pivot cell at (x, y). */
+	public void paintPiece(Graphics g, Piece piece, int x, int y)
+	{
+		Shape shape = piece.shape();
+		
+		for(int i = 0; i < Shape.SIZE; i++)
+		{
+			int row = shape.getRow(i),
+				col = shape.getCol(i);
+			
+			pieceAtlas.paint(g, piece.getType(), x + col * COL_WIDTH, y + row * ROW_HEIGHT);
+		}
+	}
+}
@@ -0,0 +1,383 @@
+package tetris;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Many replays packed into a directory of large segment files, with a
+ * sidecar index of fixed-size records holding each game's location, seed,
+ * final score, length and lines cleared. Segments and the index are read
+ * through memory-mapped buffers, and each replay is handed to a
+ * {@link ReplayReader} as a slice of its segment, so nothing is copied
+ * onto the heap. New games are appended to the last segment and the end
+ * of the index; a crash between the two only leaves unreferenced bytes.
+ */
+public class ReplayArchive implements Closeable
+{
+	public static final int SEGMENT_SIZE = 64 << 20;
+	
+	private static final String INDEX = "index.dat";
+	
+	private static final String USAGE = "Usage: archive <dir> add file...\n" +
+										"       archive <dir> query [-min-score N] [-min-lines N]";
+	
+	// seed, then segment, offset, length, score, lines and ticks as ints,
+	// the generator mode as a byte and 7 spare bytes
+	static final int RECORD_SIZE = 40;
+	
+	private Path dir;
+	
+	private FileChannel index;
+	
+	private MappedByteBuffer indexMap;
+	
+	private List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+	
+	private FileChannel writeSegment;
+	
+	private int writeSegmentNumber = -1;
+	
+	public ReplayArchive(Path dir) throws IOException
+	{
+		this.dir = dir;
+		
+		Files.createDirectories(dir);
+		
+		index = FileChannel.open(dir.resolve(INDEX), StandardOpenOption.CREATE,
+								 StandardOpenOption.READ, StandardOpenOption.WRITE);
+		
+		// drop a record cut short by a crash
+		index.truncate(index.size() / RECORD_SIZE * RECORD_SIZE);
+	}
+	
+	/** A read-only view of one indexed game. */
+	public final class Entry
+	{
+		private final int i;
+		
+		private Entry(int i) {
+			this.i = i * RECORD_SIZE;
+		}
+		
+		public long getSeed() {
+			return indexMap.getLong(i);
+		}
+		
+		public int getSegment() {
+			return indexMap.getInt(i + 8);
+		}
+		
+		public int getOffset() {
+			return indexMap.getInt(i + 12);
+		}
+		
+		public int getLength() {
+			return indexMap.getInt(i + 16);
+		}
+		
+		public int getScore() {
+			return indexMap.getInt(i + 20);
+		}
+		
+		public int getLines() {
+			return indexMap.getInt(i + 24);
+		}
+		
+		/** Game length in simulation steps. */
+		public int getTicks() {
+			return indexMap.getInt(i + 28);
+		}
+		
+		public PieceGenerator.Mode getMode() throws IOException
+		{
+			int mode = indexMap.get(i + 32);
+			
+			if(mode < 0 || mode >= PieceGenerator.MODES.length)
+				throw new IOException("Unknown generator mode " + mode + " in index record " + i / RECORD_SIZE);
+			
+			return PieceGenerator.MODES[mode];
+		}
+		
+		/**
+		 * The recording, read straight from the mapped segment. Fails if it
+		 * was not made with the generator its record says.
+		 */
+		public ReplayReader open() throws IOException
+		{
+			ByteBuffer segment = segment(getSegment(), getOffset() + getLength()).duplicate();
+			
+			segment.position(getOffset());
+			segment.limit(getOffset() + getLength());
+			
+			ReplayReader reader = new ReplayReader(segment.slice());
+			
+			if(reader.getMode() != getMode())
+				throw new IOException("Index record " + i / RECORD_SIZE + " does not match its replay's generator");
+			
+			return reader;
+		}
+	}
+	
+	/** Number of games in the archive. */
+	public synchronized int size() throws IOException {
+		return (int) (index.size() / RECORD_SIZE);
+	}
+	
+	/**
+	 * Every game in the archive, as of this call. The stream can be made
+	 * parallel; entries only read the mapped index.
+	 */
+	public synchronized Stream<Entry> entries() throws IOException
+	{
+		int count = size();
+		
+		if(indexMap == null || indexMap.capacity() < count * RECORD_SIZE)
+			indexMap = index.map(FileChannel.MapMode.READ_ONLY, 0, count * RECORD_SIZE);
+		
+		return IntStream.range(0, count).mapToObj(new IntFunction<Entry>() {
+			public Entry apply(int i) {
+				return new Entry(i);
+			}
+		});
+	}
+	
+	/**
+	 * Re-simulates every game the filter accepts, in parallel, and returns
+	 * how many steps were played in total.
+	 */
+	public long simulate(Predicate<Entry> filter, final GameVisitor visitor) throws IOException
+	{
+		final AtomicLong steps = new AtomicLong();
+		
+		entries().parallel().filter(filter).forEach(new Consumer<Entry>() {
+			public void accept(Entry entry)
+			{
+				try {
+					ReplayReader replay = entry.open();
+					
+					Game game = replay.newGame();
+					
+					steps.addAndGet(replay.play(game, false));
+					
+					visitor.visit(entry, game);
+				} catch (IOException e) {
+					throw new IllegalStateException("Corrupt replay in segment " + entry.getSegment() +
+													" at " + entry.getOffset(), e);
+				}
+			}
+		});
+		
+		return steps.get();
+	}
+	
+	/** Receives each re-simulated game; called from several threads at once. */
+	public interface GameVisitor
+	{
+		public void visit(Entry entry, Game game);
+	}
+	
+	/**
+	 * Plays the recording once to index it, then appends it to the last
+	 * segment and its record to the index.
+	 */
+	public synchronized void add(ByteBuffer replay) throws IOException
+	{
+		replay = replay.slice();
+		
+		ReplayReader reader = new ReplayReader(replay.duplicate());
+		
+		Game game = reader.newGame();
+		
+		final int[] lines = new int[1];
+		
+		game.addGameListener(new GameAdapter() {
+			public void rowsRemoved(int count) {
+				lines[0] += count;
+			}
+		});
+		
+		long ticks = reader.play(game, false);
+		
+		int length = replay.remaining();
+		
+		if(writeSegment == null || writeSegment.size() + length > SEGMENT_SIZE)
+			openSegment(length);
+		
+		long offset = writeSegment.size();
+		
+		while(replay.hasRemaining())
+			writeSegment.write(replay, writeSegment.size());
+		
+		ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+		
+		record.putLong(reader.getSeed());
+		record.putInt(writeSegmentNumber);
+		record.putInt((int) offset);
+		record.putInt(length);
+		record.putInt(game.getScore());
+		record.putInt(lines[0]);
+		record.putInt((int) Math.min(ticks, Integer.MAX_VALUE));
+		record.put((byte) reader.getMode().ordinal());
+		
+		record.clear();
+		
+		while(record.hasRemaining())
+			index.write(record, index.size());
+	}
+	
+	public void add(Path file) throws IOException {
+		add(ByteBuffer.wrap(Files.readAllBytes(file)));
+	}
+	
+	/** Opens the segment the next replay of the given length goes into. */
+	private void openSegment(int length) throws IOException
+	{
+		if(writeSegment != null)
+		{
+			writeSegment.close();
+			
+			writeSegmentNumber++;
+		}
+		else
+		{
+			// first write since opening: continue the last segment on disk
+			writeSegmentNumber = 0;
+			
+			while(Files.exists(segmentPath(writeSegmentNumber + 1)))
+				writeSegmentNumber++;
+			
+			Path last = segmentPath(writeSegmentNumber);
+			
+			if(Files.exists(last) && Files.size(last) + length > SEGMENT_SIZE)
+				writeSegmentNumber++;
+		}
+		
+		writeSegment = FileChannel.open(segmentPath(writeSegmentNumber), StandardOpenOption.CREATE,
+										StandardOpenOption.WRITE);
+	}
+	
+	/** The segment mapped at least up to end. */
+	private synchronized MappedByteBuffer segment(int number, int end) throws IOException
+	{
+		while(segments.size() <= number)
+			segments.add(null);
+		
+		MappedByteBuffer segment = segments.get(number);
+		
+		// the segment being written to may have grown since it was mapped
+		if(segment == null || segment.capacity() < end)
+		{
+			long size = Files.size(segmentPath(number));
+			
+			FileChannel channel = FileChannel.open(segmentPath(number), StandardOpenOption.READ);
+			
+			try {
+				segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			} finally {
+				channel.close();
+			}
+			
+			segments.set(number, segment);
+		}
+		
+		return segment;
+	}
+	
+	private Path segmentPath(int number) {
+		return dir.resolve(String.format("segment-%05d.dat", number));
+	}
+	
+	public synchronized void close() throws IOException
+	{
+		if(writeSegment != null)
+			writeSegment.close();
+		
+		index.close();
+	}
+	
+	/**
+	 * Usage: {@code java -jar tetris-clone.jar archive <dir> add file...} or
+	 * {@code archive <dir> query [-min-score N] [-min-lines N]}, which
+	 * re-simulates the matching games and checks their scores.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if(args.length < 2 || !(args[1].equals("add") || args[1].equals("query")))
+		{
+			System.err.println(USAGE);
+			
+			return;
+		}
+		
+		ReplayArchive archive = new ReplayArchive(Paths.get(args[0]));
+		
+		try {
+			if(args[1].equals("add"))
+			{
+				for(int i = 2; i < args.length; i++)
+					archive.add(Paths.get(args[i]));
+				
+				System.out.println(archive.size() + " games in archive");
+			}
+			else if(args[1].equals("query"))
+			{
+				int minScore = 0, minLines = 0;
+				
+				for(int i = 2; i < args.length; i++)
+				{
+					if(args[i].equals("-min-score") && i + 1 < args.length)
+						minScore = Integer.parseInt(args[++i]);
+					else if(args[i].equals("-min-lines") && i + 1 < args.length)
+						minLines = Integer.parseInt(args[++i]);
+					else
+					{
+						System.err.println(USAGE);
+						
+						return;
+					}
+				}
+				
+				final int scoreFloor = minScore, linesFloor = minLines;
+				
+				final AtomicLong games = new AtomicLong(), mismatches = new AtomicLong();
+				
+				long start = System.nanoTime();
+				
+				long steps = archive.simulate(new Predicate<Entry>() {
+					public boolean test(Entry entry) {
+						return entry.getScore() >= scoreFloor && entry.getLines() >= linesFloor;
+					}
+				}, new GameVisitor() {
+					public void visit(Entry entry, Game game)
+					{
+						games.incrementAndGet();
+						
+						if(game.getScore() != entry.getScore())
+							mismatches.incrementAndGet();
+					}
+				});
+				
+				double seconds = (System.nanoTime() - start) / 1.0e9;
+				
+				System.out.printf("%d of %d games matched, %d steps in %.2f s (%.0f games/s), %d score mismatches%n",
+								  games.get(), archive.size(), steps, seconds, games.get() / seconds, mismatches.get());
+			}
+		} finally {
+			archive.close();
+		}
+	}
+}
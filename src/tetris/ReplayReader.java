@@ -0,0 +1,179 @@
+package tetris;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Plays back a recording made by {@link ReplayWriter}. Playback builds a
+ * fresh {@link Game} from the recorded generator and steps it with the
+ * recorded step length, applying each command on the step it was
+ * recorded on, so the game plays out exactly as it did live. Nothing is
+ * rendered; steps run either as fast as possible or paced in real time.
+ */
+public class ReplayReader
+{
+	private ByteBuffer data;
+	
+	private PieceGenerator.Mode mode;
+	
+	private long seed, stepNanos;
+	
+	private int eventsStart;
+	
+	public ReplayReader(ByteBuffer data) throws IOException
+	{
+		this.data = data;
+		
+		if(data.getInt() != ReplayWriter.MAGIC)
+			throw new IOException("Not a replay");
+		
+		int version = data.get();
+		
+		if(version != ReplayWriter.VERSION)
+			throw new IOException("Unsupported replay version " + version);
+		
+		int mode = data.get();
+		
+		if(mode < 0 || mode >= PieceGenerator.MODES.length)
+			throw new IOException("Unknown generator mode " + mode);
+		
+		this.mode = PieceGenerator.MODES[mode];
+		seed = data.getLong();
+		stepNanos = getVarint();
+		
+		eventsStart = data.position();
+	}
+	
+	/**
+	 * Plays recordings headless and prints how each one ended.
+	 * Usage: {@code java -jar tetris-clone.jar replay [-realtime] file...}
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		boolean realTime = false;
+		
+		int played = 0;
+		
+		long steps = 0,
+			 start = System.nanoTime();
+		
+		for(String arg : args)
+		{
+			if(arg.equals("-realtime"))
+			{
+				realTime = true;
+				
+				continue;
+			}
+			
+			ReplayReader replay = open(Paths.get(arg));
+			
+			Game game = replay.newGame();
+			
+			long ticks = replay.play(game, realTime);
+			
+			System.out.printf("%s: score %d after %.1f s%s%n", arg, game.getScore(), game.getTime(),
+							  game.isGameOver() ? ", game over" : "");
+			
+			played++;
+			steps += ticks;
+		}
+		
+		double seconds = (System.nanoTime() - start) / 1.0e9;
+		
+		System.out.printf("%d replays, %d steps in %.2f s (%.0f replays/s, %.0f steps/s)%n",
+						  played, steps, seconds, played / seconds, steps / seconds);
+	}
+	
+	public static ReplayReader open(Path path) throws IOException
+	{
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		
+		try {
+			ByteBuffer data = ByteBuffer.allocate((int) channel.size());
+			
+			while(data.hasRemaining() && channel.read(data) >= 0);
+			
+			data.flip();
+			
+			return new ReplayReader(data);
+		} finally {
+			channel.close();
+		}
+	}
+	
+	/** A game in the state the recording started from. */
+	public Game newGame() {
+		return new Game(PieceGenerator.create(mode, seed));
+	}
+	
+	/**
+	 * Steps the game through the whole recording. In real time each step
+	 * waits for its deadline, as the live {@link Updater} does.
+	 *
+	 * @return the number of steps played
+	 */
+	public long play(Game game, boolean realTime) throws IOException
+	{
+		data.position(eventsStart);
+		
+		double dt = stepNanos / 1.0e9;
+		
+		long tick = 0,
+			 deadline = System.nanoTime();
+		
+		while(true)
+		{
+			if(!data.hasRemaining())
+				throw new IOException("Replay ends without an end marker");
+			
+			long event = getVarint();
+			
+			int action = (int) (event & ((1 << ReplayWriter.ACTION_BITS) - 1));
+			
+			// step up to the tick the event was recorded on
+			for(long target = tick + (event >>> ReplayWriter.ACTION_BITS); tick < target; tick++)
+			{
+				if(realTime)
+					Updater.waitUntil(deadline += stepNanos);
+				
+				game.update(dt);
+			}
+			
+			if(action == ReplayWriter.END)
+				return tick;
+			
+			InputQueue.apply(game, action);
+		}
+	}
+	
+	private long getVarint()
+	{
+		long value = 0;
+		
+		for(int shift = 0; ; shift += 7)
+		{
+			byte b = data.get();
+			
+			value |= (long) (b & 0x7f) << shift;
+			
+			if(b >= 0)
+				return value;
+		}
+	}
+	
+	public PieceGenerator.Mode getMode() {
+		return mode;
+	}
+	
+	public long getSeed() {
+		return seed;
+	}
+	
+	public long getStepNanos() {
+		return stepNanos;
+	}
+}
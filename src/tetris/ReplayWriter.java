@@ -0,0 +1,156 @@
+package tetris;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records a game as its piece generator seed plus every input command
+ * and the step it was applied on. Events are varints packed into a
+ * direct buffer that is flushed to the channel when full, so recording
+ * allocates nothing. A minute of play is typically a few hundred bytes.
+ * <p>
+ * Layout: the magic "TRPL", a version byte, the generator mode, the
+ * 8-byte seed and the step length in nanoseconds as a varint. Then one
+ * varint per event, (steps since the last event &lt;&lt; 3) | action,
+ * closed by an event with action {@link #END}.
+ * <p>
+ * Recording is called from the simulation, so a failed write does not
+ * throw there: the recording stops and the error is rethrown by
+ * {@link #close()}.
+ */
+public class ReplayWriter implements Closeable
+{
+	public static final int MAGIC = 0x5452504c, VERSION = 2;
+	
+	/** Action code marking the last step of the recording. */
+	public static final int END = 7;
+	
+	static final int ACTION_BITS = 3;
+	
+	private static final int BUFFER_SIZE = 8192;
+	
+	private WritableByteChannel channel;
+	
+	private ByteBuffer buffer;
+	
+	private long tick, lastEvent;
+	
+	private boolean closed;
+	
+	private IOException error;
+	
+	public ReplayWriter(Path path, Game game, long stepNanos) throws IOException
+	{
+		this(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+							  StandardOpenOption.TRUNCATE_EXISTING), game, stepNanos);
+	}
+	
+	/** Starts a recording of a game that has not been stepped yet. */
+	public ReplayWriter(WritableByteChannel channel, Game game, long stepNanos) throws IOException
+	{
+		this.channel = channel;
+		
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		
+		PieceGenerator generator = game.getGenerator();
+		
+		buffer.putInt(MAGIC);
+		buffer.put((byte) VERSION);
+		buffer.put((byte) generator.getMode().ordinal());
+		buffer.putLong(generator.getSeed());
+		
+		putVarint(stepNanos);
+	}
+	
+	/** Records an action applied before the current step. */
+	public synchronized void record(int action)
+	{
+		if(closed || error != null)
+			return;
+		
+		try {
+			event(action);
+		} catch (IOException e) {
+			error = e;
+		}
+	}
+	
+	/** Called after every step of the game. */
+	public synchronized void step() {
+		tick++;
+	}
+	
+	/**
+	 * Called after every step of a live game. Once the game is over the
+	 * recording is closed, after the step, so the end is marked on the
+	 * step the game ended and playback ends it the same way.
+	 */
+	public synchronized void step(Game game) throws IOException
+	{
+		step();
+		
+		if(game.isGameOver())
+			close();
+	}
+	
+	public synchronized long getTicks() {
+		return tick;
+	}
+	
+	private void event(int action) throws IOException
+	{
+		// a varint of a long is at most 10 bytes
+		if(buffer.remaining() < 10)
+			flush();
+		
+		putVarint((tick - lastEvent) << ACTION_BITS | action);
+		
+		lastEvent = tick;
+	}
+	
+	private void putVarint(long value)
+	{
+		while((value & ~0x7fL) != 0)
+		{
+			buffer.put((byte) (value & 0x7f | 0x80));
+			
+			value >>>= 7;
+		}
+		
+		buffer.put((byte) value);
+	}
+	
+	private void flush() throws IOException
+	{
+		buffer.flip();
+		
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+		
+		buffer.clear();
+	}
+	
+	/** Marks the end at the current step and closes the channel. */
+	public synchronized void close() throws IOException
+	{
+		if(closed)
+			return;
+		
+		closed = true;
+		
+		try {
+			if(error != null)
+				throw error;
+			
+			event(END);
+			
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+}
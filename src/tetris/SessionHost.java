@@ -0,0 +1,565 @@
+package tetris;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Steps thousands of independent games from a few threads, for servers
+ * and spectators where a thread per {@link Updater} does not scale. One
+ * timer thread keeps every session on a wheel of millisecond slots and
+ * moves each to a shared run queue when its next step is due; a pool of
+ * workers, one per core by default, takes sessions off the queue in
+ * order and steps them.
+ * <p>
+ * A session is never queued twice. Steps that come due while it waits
+ * are owed and run together, a few per turn so one late session cannot
+ * hold a worker; past {@link #MAX_BACKLOG} owed steps further steps are
+ * dropped, so an overloaded host slows its games down instead of
+ * falling ever further behind. The host holds at most a fixed number of
+ * sessions and refuses more. How late each step runs is recorded, and once a
+ * second the timer reports if steps were dropped or ran over a step late.
+ * <p>
+ * A packed host keeps its games in a {@link SessionStore} instead of on
+ * the heap. Each worker loads a session into a game of its own, steps
+ * it and saves it back, so the heap no longer grows with the number of
+ * sessions and the collector has nothing per game to trace.
+ */
+public class SessionHost
+{
+	/** Owed steps past which further steps are dropped. */
+	public static final int MAX_BACKLOG = 8;
+	
+	// steps a session runs per turn before going to the back of the queue
+	private static final int MAX_STEPS_PER_TURN = 2;
+	
+	private static final long SLOT_NANOS = 1000000;
+	
+	private static final int WHEEL_SIZE = 256;
+	
+	private static final long REPORT_NANOS = 1000000000L;
+	
+	private static final int INPUT_CAPACITY = 16;
+	
+	private final int maxSessions;
+	
+	private final BlockingQueue<Session> runQueue;
+	
+	// sessions opened since the timer last looked
+	private final ConcurrentLinkedQueue<Session> opened = new ConcurrentLinkedQueue<Session>();
+	
+	// timer thread only: the first session in each slot, linked through Session.next
+	private final Session[] wheel = new Session[WHEEL_SIZE];
+	
+	private long start, currentSlot;
+	
+	private final AtomicInteger sessionCount = new AtomicInteger();
+	
+	private final LongAdder steps = new LongAdder();
+	
+	private volatile long droppedSteps;
+	
+	// how late steps ran in the last full second, replaced by the timer
+	private volatile LatencyHistogram lag = new LatencyHistogram();
+	
+	// where packed sessions live, or null to keep each Game on the heap
+	private final SessionStore store;
+	
+	private final Worker[] workers;
+	
+	private final Thread timer;
+	
+	private volatile boolean running = true;
+	
+	public SessionHost(int maxSessions) {
+		this(maxSessions, Runtime.getRuntime().availableProcessors());
+	}
+	
+	public SessionHost(int maxSessions, int workerCount) {
+		this(maxSessions, workerCount, false);
+	}
+	
+	public SessionHost(int maxSessions, int workerCount, boolean packed)
+	{
+		this.maxSessions = maxSessions;
+		
+		store = packed ? new SessionStore(maxSessions) : null;
+		
+		// every session is in the queue at most once, so it never fills
+		runQueue = new ArrayBlockingQueue<Session>(maxSessions);
+		
+		workers = new Worker[workerCount];
+		
+		for(int i = 0; i < workerCount; i++)
+		{
+			workers[i] = new Worker();
+			workers[i].thread = new Thread(workers[i], "Session Worker " + i);
+			workers[i].thread.setDaemon(true);
+			workers[i].thread.start();
+		}
+		
+		start = System.nanoTime();
+		
+		timer = new Thread(new Runnable() {
+			public void run() {
+				runTimer();
+			}
+		}, "Session Timer");
+		
+		timer.setDaemon(true);
+		
+		// last, so starting it publishes everything the timer reads
+		timer.start();
+	}
+	
+	/**
+	 * Usage: {@code java -jar tetris-clone.jar host [-sessions N]
+	 * [-workers N] [-seconds N] [-packed]}. Keeps that many games running
+	 * with random input, opening a new game whenever one ends, and prints
+	 * the load every second.
+	 */
+	public static void main(String[] args) throws InterruptedException
+	{
+		int sessionCount = 5000,
+			workerCount = Runtime.getRuntime().availableProcessors();
+		
+		double seconds = 30;
+		
+		boolean packed = false;
+		
+		for(int i = 0; i < args.length; i++)
+		{
+			if(args[i].equals("-packed"))
+				packed = true;
+			else if(args[i].equals("-sessions"))
+				sessionCount = Integer.parseInt(args[++i]);
+			else if(args[i].equals("-workers"))
+				workerCount = Integer.parseInt(args[++i]);
+			else if(args[i].equals("-seconds"))
+				seconds = Double.parseDouble(args[++i]);
+			else
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+		}
+		
+		// closed sessions hold their place for up to a step, so leave room for new ones
+		SessionHost host = new SessionHost(sessionCount + sessionCount / 8 + 1, workerCount, packed);
+		
+		Session[] sessions = new Session[sessionCount];
+		
+		PieceGenerator seeds = PieceGenerator.create(PieceGenerator.Mode.BAG, 1);
+		
+		Random rand = new Random(1);
+		
+		long begin = System.nanoTime(),
+			 end = begin + (long) (seconds * 1.0e9),
+			 nextReport = begin + REPORT_NANOS,
+			 lastSteps = 0;
+		
+		int games = 0;
+		
+		System.out.printf("%d sessions, %d workers%s%n", sessionCount, workerCount, packed ? ", packed" : "");
+		
+		// one thread plays every game, so each input queue has one producer
+		for(long now = begin; now < end; now = System.nanoTime())
+		{
+			for(int i = 0; i < sessionCount; i++)
+			{
+				if(sessions[i] == null || !sessions[i].isOpen())
+				{
+					try {
+						sessions[i] = host.open(new Game(seeds.split()));
+						
+						games++;
+					} catch (RejectedExecutionException e) {
+						// full until the timer frees closed sessions; try again next round
+					}
+				}
+				else if(rand.nextInt(8) == 0)
+					sessions[i].getInput().offer(rand.nextInt(InputQueue.HARD_DROP + 1));
+			}
+			
+			if(now >= nextReport)
+			{
+				long total = host.getSteps();
+				
+				System.out.printf("%d sessions, %d games, %d steps/s, %d queued, %d MB heap, %s%n",
+								  host.getSessionCount(), games, total - lastSteps, host.getQueueLength(),
+								  ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() >> 20, host.getLag());
+				
+				lastSteps = total;
+				nextReport += REPORT_NANOS;
+			}
+			
+			Thread.sleep(BatchRunner.STEP_NANOS / 1000000);
+		}
+		
+		System.gc();
+		
+		System.out.printf("%d MB heap live after a full collection%n",
+						  ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() >> 20);
+		
+		host.shutdown();
+	}
+	
+	/**
+	 * Starts stepping a game at the live update rate.
+	 *
+	 * @throws RejectedExecutionException if the host is full
+	 */
+	public Session open(Game game) {
+		return open(game, Updater.DEFAULT_UPDATE_RATE);
+	}
+	
+	/**
+	 * Starts stepping a game the given number of times a second, at most
+	 * one step per millisecond. Its first step is one step from now.
+	 *
+	 * @throws RejectedExecutionException if the host is full
+	 */
+	public Session open(Game game, int updateRate)
+	{
+		if(updateRate <= 0 || 1000000000L / updateRate < SLOT_NANOS)
+			throw new IllegalArgumentException("Update rate must be 1 to " + 1000000000L / SLOT_NANOS);
+		
+		while(true)
+		{
+			int count = sessionCount.get();
+			
+			if(count >= maxSessions)
+				throw new RejectedExecutionException("Session host is full: " + maxSessions + " sessions");
+			
+			if(sessionCount.compareAndSet(count, count + 1))
+				break;
+		}
+		
+		Session session = new Session(game, updateRate);
+		
+		if(store != null)
+		{
+			// there is a slot for every session the host can hold
+			session.slot = store.allocate();
+			
+			store.save(session.slot, game);
+		}
+		
+		opened.add(session);
+		
+		return session;
+	}
+	
+	private void runTimer()
+	{
+		long nextReport = start + REPORT_NANOS,
+			 reportedDrops = 0;
+		
+		while(running)
+		{
+			long due = start + (currentSlot + 1) * SLOT_NANOS,
+				 wait = due - System.nanoTime();
+			
+			// a late timer runs the slots it missed back to back
+			if(wait > 0)
+			{
+				LockSupport.parkNanos(wait);
+				
+				continue;
+			}
+			
+			currentSlot++;
+			
+			for(Session session; (session = opened.poll()) != null; )
+			{
+				session.deadline = System.nanoTime() + session.period;
+				
+				schedule(session);
+			}
+			
+			runSlot();
+			
+			if(due - nextReport >= 0)
+			{
+				nextReport += REPORT_NANOS;
+				
+				long drops = droppedSteps;
+				
+				// the workers keep recording; only what is new since the last report is taken
+				LatencyHistogram lag = new LatencyHistogram();
+				
+				for(Worker worker : workers)
+					lag.addSince(worker.lag, worker.reported);
+				
+				this.lag = lag;
+				
+				if(drops > reportedDrops || lag.getPercentile(0.99) > BatchRunner.STEP_NANOS)
+					System.err.printf("Session host overloaded: %d sessions, %d queued, %d steps dropped, lag %s%n",
+									  getSessionCount(), getQueueLength(), drops - reportedDrops, lag);
+				
+				reportedDrops = drops;
+			}
+		}
+	}
+	
+	/** Queues every session due in the current slot and puts it back for its next step. */
+	private void runSlot()
+	{
+		int index = (int) (currentSlot % WHEEL_SIZE);
+		
+		Session session = wheel[index];
+		
+		wheel[index] = null;
+		
+		while(session != null)
+		{
+			Session next = session.next;
+			
+			// a closed session keeps its place until it is off the run queue
+			if(!session.open && session.owed.get() == 0)
+			{
+				if(store != null)
+					store.free(session.slot);
+				
+				sessionCount.decrementAndGet();
+			}
+			else
+			{
+				// sessions further out than the wheel wait in it for another turn
+				if(session.open && slotOf(session.deadline) <= currentSlot)
+				{
+					session.due();
+					
+					session.deadline += session.period;
+				}
+				
+				schedule(session);
+			}
+			
+			session = next;
+		}
+	}
+	
+	private void schedule(Session session)
+	{
+		int index = (int) (Math.max(slotOf(session.deadline), currentSlot + 1) % WHEEL_SIZE);
+		
+		session.next = wheel[index];
+		
+		wheel[index] = session;
+	}
+	
+	private long slotOf(long nanos) {
+		return (nanos - start) / SLOT_NANOS;
+	}
+	
+	/** Stops stepping every session. */
+	public void shutdown() throws InterruptedException
+	{
+		running = false;
+		
+		timer.join();
+		
+		for(Worker worker : workers)
+		{
+			worker.thread.interrupt();
+			worker.thread.join();
+		}
+	}
+	
+	/** Where packed sessions are kept, or null when the host is not packed. */
+	public SessionStore getStore() {
+		return store;
+	}
+	
+	public int getSessionCount() {
+		return sessionCount.get();
+	}
+	
+	public int getMaxSessions() {
+		return maxSessions;
+	}
+	
+	/** Sessions waiting for a worker. */
+	public int getQueueLength() {
+		return runQueue.size();
+	}
+	
+	public long getSteps() {
+		return steps.sum();
+	}
+	
+	/** Steps dropped because their session was already {@link #MAX_BACKLOG} steps behind. */
+	public long getDroppedSteps() {
+		return droppedSteps;
+	}
+	
+	/** How late each step ran in the last full second, merged from every worker. */
+	public LatencyHistogram getLag() {
+		return lag;
+	}
+	
+	public String toString()
+	{
+		return String.format("%d of %d sessions, %d queued, %d steps, %d dropped, lag %s", getSessionCount(),
+							 maxSessions, getQueueLength(), getSteps(), droppedSteps, getLag());
+	}
+	
+	/**
+	 * One game stepped by the host. Commands for it go through
+	 * {@link #getInput()}, from one thread at a time. The game itself is
+	 * only safe to touch from its listeners, which run on the worker
+	 * stepping it.
+	 */
+	public final class Session
+	{
+		// null when packed
+		private final Game game;
+		
+		private int slot = -1;
+		
+		private final InputQueue input = new InputQueue(INPUT_CAPACITY, null);
+		
+		private final long period;
+		
+		private final double dt;
+		
+		// steps due but not yet run; the thread that moves it off zero queues the session
+		private final AtomicInteger owed = new AtomicInteger();
+		
+		// when the oldest owed step was due
+		private volatile long firstDue;
+		
+		private volatile boolean open = true;
+		
+		// timer thread only
+		private long deadline;
+		
+		private Session next;
+		
+		private Session(Game game, int updateRate)
+		{
+			this.game = store == null ? game : null;
+			
+			period = 1000000000L / updateRate;
+			
+			dt = period / 1.0e9;
+		}
+		
+		/** Called by the timer when a step comes due. */
+		private void due()
+		{
+			int count;
+			
+			do {
+				count = owed.get();
+				
+				if(count >= MAX_BACKLOG)
+				{
+					droppedSteps++;
+					
+					return;
+				}
+			} while(!owed.compareAndSet(count, count + 1));
+			
+			if(count == 0)
+			{
+				firstDue = deadline;
+				
+				runQueue.add(this);
+			}
+		}
+		
+		/** Runs a few owed steps on a worker, then queues itself again if more are owed. */
+		private void run(Worker worker)
+		{
+			int count = open ? Math.min(owed.get(), MAX_STEPS_PER_TURN) : owed.get();
+			
+			if(open)
+			{
+				Game game = this.game;
+				
+				if(store != null)
+				{
+					game = worker.game;
+					
+					store.load(slot, game);
+				}
+				
+				long now = System.nanoTime();
+				
+				for(int i = 0; i < count; i++)
+				{
+					// step i was due i periods after the first owed one
+					worker.lag.record(now - (firstDue + i * period));
+					
+					input.drainTo(game);
+					
+					game.update(dt);
+				}
+				
+				if(store != null)
+					store.save(slot, game);
+				
+				steps.add(count);
+				
+				if(game.isGameOver())
+					close();
+			}
+			
+			firstDue += count * period;
+			
+			if(owed.addAndGet(-count) > 0)
+				runQueue.add(this);
+		}
+		
+		/** The game, or null when the host is packed; read {@link #getSlot()} instead. */
+		public Game getGame() {
+			return game;
+		}
+		
+		/** The session's slot in {@link SessionHost#getStore()}, or -1 when not packed. */
+		public int getSlot() {
+			return slot;
+		}
+		
+		public InputQueue getInput() {
+			return input;
+		}
+		
+		/** False once closed or the game is over. */
+		public boolean isOpen() {
+			return open;
+		}
+		
+		/** Stops stepping the game; its place is freed within a wheel turn. */
+		public void close() {
+			open = false;
+		}
+	}
+	
+	/** Takes sessions off the run queue in order and steps them. */
+	private class Worker implements Runnable
+	{
+		private Thread thread;
+		
+		// how late each step ran, only written by this worker
+		private final LatencyHistogram lag = new LatencyHistogram();
+		
+		// timer thread only: lag as of the last report
+		private final LatencyHistogram reported = new LatencyHistogram();
+		
+		// packed sessions are loaded into this to be stepped
+		private final Game game = new Game();
+		
+		public void run()
+		{
+			try {
+				while(true)
+					runQueue.take().run(this);
+			} catch (InterruptedException e) {}
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package tetris;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Games packed into one block of off-heap memory, a fixed-size slot
+ * each, in the layout of {@link Game#save}. A game at rest costs its slot
+ * and nothing on the heap; it is loaded into a reusable {@link Game} to
+ * be stepped and saved back after. Slots freed when games end are handed
+ * out again first, so memory stays where it is.
+ * <p>
+ * {@link GameView} and {@link BoardView} read a slot in place, with the
+ * same accessors as {@link Game} and {@link Board}; one view can be moved
+ * from slot to slot. Slots are only safe to load and save from one thread
+ * at a time; views read while a slot is written may see a step half done.
+ */
+public class SessionStore
+{
+	private static final int CACHE_LINE = 64;
+	
+	/** Bytes per slot: a saved game, rounded up to whole cache lines. */
+	public static final int SLOT_SIZE = (Game.STATE_SIZE + CACHE_LINE - 1) & -CACHE_LINE;
+	
+	private final ByteBuffer memory;
+	
+	private final int capacity;
+	
+	// a stack of free slots
+	private final int[] free;
+	
+	private int freeCount;
+	
+	// a positioned view of the memory per thread, since loads and saves move it
+	private final ThreadLocal<ByteBuffer> views = new ThreadLocal<ByteBuffer>() {
+		protected ByteBuffer initialValue() {
+			return memory.duplicate().order(memory.order());
+		}
+	};
+	
+	public SessionStore(int capacity)
+	{
+		if((long) capacity * SLOT_SIZE + CACHE_LINE > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("At most " + (Integer.MAX_VALUE - CACHE_LINE) / SLOT_SIZE + " slots: " +
+											   capacity);
+		
+		this.capacity = capacity;
+		
+		// direct buffers are only sure to be 8-byte aligned, so slots start at
+		// the first cache line of a block a line larger than they need
+		ByteBuffer block = ByteBuffer.allocateDirect(capacity * SLOT_SIZE + CACHE_LINE);
+		
+		block.position((CACHE_LINE - lineOffset(block)) % CACHE_LINE);
+		
+		memory = block.slice().order(ByteOrder.nativeOrder());
+		
+		free = new int[capacity];
+		
+		// lowest slots first, so a lightly used store touches little memory
+		for(int i = 0; i < capacity; i++)
+			free[i] = capacity - 1 - i;
+		
+		freeCount = capacity;
+	}
+	
+	/**
+	 * How far past the start of a cache line the buffer's memory begins.
+	 * Java 8 has no API for this, so the address is read from the field
+	 * Buffer keeps it in; later JVMs have alignmentOffset, called by name
+	 * so this still compiles for Java 8. Returns 0, leaving slots as they
+	 * fall, if neither works.
+	 */
+	private static int lineOffset(ByteBuffer buffer)
+	{
+		try {
+			return (Integer) ByteBuffer.class.getMethod("alignmentOffset", int.class, int.class)
+											 .invoke(buffer, 0, CACHE_LINE);
+		} catch (ReflectiveOperationException | RuntimeException e) {}
+		
+		try {
+			Field address = Buffer.class.getDeclaredField("address");
+			
+			address.setAccessible(true);
+			
+			return (int) (address.getLong(buffer) & (CACHE_LINE - 1));
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return 0;
+		}
+	}
+	
+	/** Takes a free slot, or returns -1 if there is none. */
+	public synchronized int allocate()
+	{
+		if(freeCount == 0)
+			return -1;
+		
+		return free[--freeCount];
+	}
+	
+	public synchronized void free(int slot) {
+		free[freeCount++] = slot;
+	}
+	
+	public synchronized int getUsed() {
+		return capacity - freeCount;
+	}
+	
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/** Writes the game into the slot. */
+	public void save(int slot, Game game)
+	{
+		ByteBuffer view = views.get();
+		
+		view.position(slot * SLOT_SIZE);
+		
+		game.save(view);
+	}
+	
+	/** Replaces the game with the one in the slot. */
+	public void load(int slot, Game game)
+	{
+		ByteBuffer view = views.get();
+		
+		view.position(slot * SLOT_SIZE);
+		
+		game.restore(view);
+	}
+	
+	/** A view to point at slots with {@link GameView#moveTo}. */
+	public GameView newView() {
+		return new GameView();
+	}
+	
+	/** A flyweight reading a saved game in place. */
+	public final class GameView
+	{
+		private int base;
+		
+		private final BoardView board = new BoardView();
+		
+		/** Points this view, and its board, at another slot. */
+		public GameView moveTo(int slot)
+		{
+			base = slot * SLOT_SIZE;
+			
+			board.base = base + Game.BOARD_OFFSET;
+			
+			return this;
+		}
+		
+		public BoardView getBoard() {
+			return board;
+		}
+		
+		public byte getCurrentType() {
+			return memory.get(base + Game.PIECE_OFFSET);
+		}
+		
+		public int getCurrentOrientation() {
+			return memory.get(base + Game.PIECE_OFFSET + 1);
+		}
+		
+		public int getCurrentRow() {
+			return memory.getInt(base + Game.PIECE_OFFSET + 2);
+		}
+		
+		public int getCurrentCol() {
+			return memory.getInt(base + Game.PIECE_OFFSET + 6);
+		}
+		
+		public byte getNextType() {
+			return memory.get(base + Game.NEXT_PIECE_OFFSET);
+		}
+		
+		public int getScore() {
+			return memory.getInt(base + Game.SCORE_OFFSET);
+		}
+		
+		public int getBestScore() {
+			return memory.getInt(base + Game.BEST_SCORE_OFFSET);
+		}
+		
+		public double getTime() {
+			return memory.getDouble(base + Game.TIME_OFFSET);
+		}
+		
+		public boolean isGameOver() {
+			return memory.get(base + Game.GAME_OVER_OFFSET) != 0;
+		}
+	}
+	
+	/** A flyweight reading a saved board in place. */
+	public final class BoardView
+	{
+		private int base;
+		
+		public boolean isFilled(int row, int col) {
+			return (getRow(row) & (1 << col)) != 0;
+		}
+		
+		public boolean isFilledRow(int row) {
+			return getRow(row) == Board.FULL_ROW;
+		}
+		
+		public int getRow(int row) {
+			return memory.getShort(base + row * 2);
+		}
+		
+		public byte getColor(int row, int col) {
+			return memory.get(base + Board.COLORS_OFFSET + row * Board.COLS + col);
+		}
+		
+		/** Copies the board into a heap board, for code that needs a {@link Board}. */
+		public void copyTo(Board board)
+		{
+			for(int row = 0; row < Board.ROWS; row++)
+				for(int col = 0; col < Board.COLS; col++)
+				{
+					byte color = getColor(row, col);
+					
+					if(color == Board.EMPTY)
+						board.clear(row, col);
+					else
+						board.fill(row, col, color);
+				}
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package tetris;
+
+/**
+ * Immutable cell offsets of one tetromino in one orientation, relative
+ * to the piece's pivot cell. The rotation tables below are built once
+ * and shared by every piece, so nothing is allocated when a piece
+ * moves, rotates or is painted.
+ */
+public final class Shape
+{
+	public static final int SIZE = 4;
+	
+	public static final Shape[] I = rotations(
+			new int[] {0, 0, -1, 0, 1, 0, 2, 0},
+			new int[] {0, 0, 0, -2, 0, -1, 0, 1},
+			new int[] {0, 0, -2, 0, -1, 0, 1, 0},
+			new int[] {0, 0, 0, -1, 0, 1, 0, 2});
+	
+	public static final Shape[] O = rotations(
+			new int[] {0, 0, 1, 0, 0, 1, 1, 1},
+			new int[] {0, 0, 1, 0, 0, 1, 1, 1},
+			new int[] {0, 0, 1, 0, 0, 1, 1, 1},
+			new int[] {0, 0, 1, 0, 0, 1, 1, 1});
+	
+	public static final Shape[] T = rotations(
+			new int[] {0, 0, -1, 0, 1, 0, 0, 1},
+			new int[] {0, 0, 0, -1, 0, 1, 1, 0},
+			new int[] {0, 0, -1, 0, 1, 0, 0, -1},
+			new int[] {0, 0, 0, -1, 0, 1, -1, 0});
+	
+	public static final Shape[] S = rotations(
+			new int[] {0, 0, -1, 0, 0, 1, 1, 1},
+			new int[] {0, 0, 0, 1, 1, 0, 1, -1},
+			new int[] {0, 0, 1, 0, 0, -1, -1, -1},
+			new int[] {0, 0, -1, 0, -1, 1, 0, -1});
+	
+	public static final Shape[] Z = rotations(
+			new int[] {0, 0, 0, 1, -1, 1, 1, 0},
+			new int[] {0, 0, 0, -1, 1, 0, 1, 1},
+			new int[] {0, 0, -1, 0, 0, -1, 1, -1},
+			new int[] {0, 0, 0, 1, -1, 0, -1, -1});
+	
+	public static final Shape[] J = rotations(
+			new int[] {0, 0, -1, 0, -1, 1, 1, 0},
+			new int[] {0, 0, 0, -1, 0, 1, 1, 1},
+			new int[] {0, 0, -1, 0, 1, 0, 1, -1},
+			new int[] {0, 0, 0, -1, 0, 1, -1, -1});
+	
+	public static final Shape[] L = rotations(
+			new int[] {0, 0, -1, 0, 1, 0, 1, 1},
+			new int[] {0, 0, 0, -1, 0, 1, 1, -1},
+			new int[] {0, 0, -1, 0, 1, 0, -1, -1},
+			new int[] {0, 0, 0, -1, 0, 1, -1, 1});
+	
+	private final int[] cols, rows;
+	
+	private Shape(int[] offsets)
+	{
+		cols = new int[SIZE];
+		rows = new int[SIZE];
+		
+		for(int i = 0; i < SIZE; i++)
+		{
+			cols[i] = offsets[2 * i];
+			rows[i] = offsets[2 * i + 1];
+		}
+	}
+	
+	private static Shape[] rotations(int[]... orientations)
+	{
+		Shape[] shapes = new Shape[orientations.length];
+		
+		for(int i = 0; i < shapes.length; i++)
+			shapes[i] = new Shape(orientations[i]);
+		
+		return shapes;
+	}
+	
+	public int getCol(int i) {
+		return cols[i];
+	}
+	
+	public int getRow(int i) {
+		return rows[i];
+	}
+}
@@ -0,0 +1,96 @@
+package tetris;
+
+/**
+ * Immutable copy of everything needed to draw one frame of a
+ * {@link Game}. The simulation publishes a new snapshot after every
+ * step and the render thread draws whichever one is newest, so the two
+ * never touch the same mutable state.
+ */
+public final class Snapshot
+{
+	private final Board board;
+	
+	private final Piece currPiece, nextPiece;
+	
+	private final int ghostRow;
+	
+	private final int score, bestScore;
+	
+	private final double time;
+	
+	private final boolean gameOver;
+	
+	private final long inputIssued, inputApplied;
+	
+	public Snapshot(Game game) {
+		this(game, 0, 0);
+	}
+	
+	/**
+	 * @param inputIssued when the oldest input not yet on screen was
+	 * issued, or 0 if there is none
+	 * @param inputApplied when the simulation applied that input
+	 */
+	public Snapshot(Game game, long inputIssued, long inputApplied)
+	{
+		board = new Board();
+		board.copyFrom(game.getBoard());
+		
+		currPiece = game.getCurrentPiece().copy();
+		nextPiece = game.getNextPiece().copy();
+		
+		ghostRow = game.getGhostRow();
+		
+		score = game.getScore();
+		bestScore = game.getBestScore();
+		
+		time = game.getTime();
+		
+		gameOver = game.isGameOver();
+		
+		this.inputIssued = inputIssued;
+		this.inputApplied = inputApplied;
+	}
+	
+	/** The board as it was; callers must not modify it. */
+	public Board getBoard() {
+		return board;
+	}
+	
+	public Piece getCurrentPiece() {
+		return currPiece;
+	}
+	
+	public Piece getNextPiece() {
+		return nextPiece;
+	}
+	
+	/** The row the current piece would land on. */
+	public int getGhostRow() {
+		return ghostRow;
+	}
+	
+	public int getScore() {
+		return score;
+	}
+	
+	public int getBestScore() {
+		return bestScore;
+	}
+	
+	public double getTime() {
+		return time;
+	}
+	
+	public boolean isGameOver() {
+		return gameOver;
+	}
+	
+	public long getInputIssued() {
+		return inputIssued;
+	}
+	
+	public long getInputApplied() {
+		return inputApplied;
+	}
+}
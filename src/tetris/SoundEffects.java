@@ -0,0 +1,55 @@
+package tetris;
+
+/**
+ * Plays the game's sound effects in response to {@link Game} events.
+ */
+public class SoundEffects extends GameAdapter
+{
+	public static final String START = "sounds/start.wav",
+							   MUSIC = "sounds/music.wav",
+							   ROTATE = "sounds/block-rotate.wav",
+							   HARD_DROP = "sounds/line-drop.wav",
+							   SLOW_HIT = "sounds/slow-hit.wav",
+							   FORCE_HIT = "sounds/force-hit.wav",
+							   LINE_REMOVE = "sounds/line-remove.wav",
+							   LINE_REMOVE4 = "sounds/line-removal4.wav",
+							   GAME_OVER = "sounds/gameover.wav";
+	
+	private Game game;
+	
+	public SoundEffects(Game game) {
+		this.game = game;
+	}
+	
+	/** Decodes every effect up front so the first play of each is instant. */
+	public static void load() {
+		Audio.load(START, MUSIC, ROTATE, HARD_DROP, SLOW_HIT, FORCE_HIT,
+				   LINE_REMOVE, LINE_REMOVE4, GAME_OVER);
+	}
+	
+	public void pieceRotated() {
+		Audio.play(ROTATE, false);
+	}
+	
+	public void pieceLocked(boolean hardDrop)
+	{
+		if(hardDrop)
+			Audio.play(HARD_DROP, false);
+		else if(game.getDropMode() == Game.DropMode.NORMAL)
+			Audio.play(SLOW_HIT, false);
+		else
+			Audio.play(FORCE_HIT, false);
+	}
+	
+	public void rowsFilled(int count)
+	{
+		if(count == 4)
+			Audio.play(LINE_REMOVE4, false);
+		else
+			Audio.play(LINE_REMOVE, false);
+	}
+	
+	public void gameOver() {
+		Audio.play(GAME_OVER, false);
+	}
+}
@@ -1,758 +1,186 @@
 package tetris;
-import java.awt.Color;
 import java.awt.Graphics;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.Random;
 
-import javax.imageio.ImageIO;
+import javax.management.JMException;
 
-public class Tetris 
+public class Tetris
 {
-	private static final int COLS = 11, ROWS = 26;
+	private static final int COLS = Board.COLS, ROWS = Board.ROWS;
 	
 	public static final int COL_WIDTH = 20,
 						     ROW_HEIGHT = 20;
 	
-	public static final int SCENE_WIDTH = COLS * COL_WIDTH, 
+	public static final int SCENE_WIDTH = COLS * COL_WIDTH,
 							SCENE_HEIGHT = ROWS * ROW_HEIGHT;
 	
-	private static final double NORMAL_MOVE_DELAY = 0.60,
-								SOFT_MOVE_DELAY = 0.30;
-
-	private static final int NO_FILLED_ROW = -1;
-	
-	private static final double REMOVE_ROW_PERIOD = 0.25;
-	
-	private BufferedImage pieceImg;
-	
 	private Updater updater;
 	
+	private RenderLoop renderLoop;
+	
 	private UI ui;
-
-	private Square[][] grid;
 	
-	private Piece currPiece, nextPiece;
+	private Game game;
 	
-	private Random rand;
+	private InputQueue input;
 	
-	private DropMode dropMode;
+	private InputLatency latency;
 	
-	public enum DropMode {NORMAL, SOFT}
+	private Renderer renderer;
 	
-	private int filledRowStart, filledRowEnd;
+	private volatile Snapshot snapshot;
 	
-	private int score, bestScore;
+	private GameMetrics metrics;
 	
-	private double time;
+	private ReplayWriter replay;
 	
 	public Tetris()
 	{
+		game = new Game();
+		
+		input = new InputQueue();
+		
+		latency = new InputLatency(input);
+		
+		SoundEffects.load();
+		
+		game.addGameListener(new SoundEffects(game));
+		
+		snapshot = new Snapshot(game);
+		
 		updater = new Updater(this);
 		
 		ui = new UI(this);
 		
-		grid = new Square[ROWS][COLS];
+		renderLoop = new RenderLoop(ui);
 		
-		rand = new Random();
-	
-		currPiece = randomPiece();
-		nextPiece = randomPiece();
+		metrics = new GameMetrics(this);
+		
+		String replayDir = System.getProperty("tetris.replay.dir");
 		
-		filledRowStart = filledRowEnd = NO_FILLED_ROW;
+		if(replayDir != null)
+			startRecording(new File(replayDir, "tetris-" + System.currentTimeMillis() + ".replay"));
 		
 		try {
-			pieceImg = ImageIO.read(new File("tetrominoes.png"));
+			renderer = new Renderer();
 		} catch (IOException e) {
 			e.printStackTrace();
 			System.exit(1);
 		}
 	}
 	
-	private Piece randomPiece()
-	{
-		int i = rand.nextInt(7);
-		
-		if(i == 0)
-			return new I(0, 4);
-		else if(i == 1)
-			return new O(0, 4);
-		else if(i == 2)
-			return new T(0, 4);
-		else if(i == 3)
-			return new S(0, 4);
-		else if(i == 4)
-			return new Z(0, 4);
-		else if(i == 5)
-			return new J(0, 4);
-		else
-			return new L(0, 4);
-	}
-	
 	public void start()
 	{
 		updater.start();
 		
 		ui.show();
 		
-		Audio.play("sounds/start.wav", false);
-		Audio.play("sounds/music.wav", true);
-	}
-	
-	private double elapsed = 0;
-	
-	public void update(double dt)
-	{
-		ui.update(dt);
-		
-		time += dt;
+		renderLoop.start();
 		
-		elapsed += dt;
-		
-		if(filledRowStart == NO_FILLED_ROW)
-		{
-			double moveDelay = dropMode == DropMode.NORMAL ? 
-					   NORMAL_MOVE_DELAY : SOFT_MOVE_DELAY;
-					
-			if(elapsed > moveDelay)
-			{
-				elapsed = 0;
-				
-				currPiece.moveDown();
-				
-				if(currPiece.collides())
-				{
-					if(dropMode == DropMode.NORMAL)
-						Audio.play("sounds/slow-hit.wav", false);
-					else
-						Audio.play("sounds/force-hit.wav", false);
-					
-					currPiece.moveUp();
-					currPiece.split();
-					
-					currPiece = nextPiece;
-					
-					nextPiece = randomPiece();
-					
-					int rowsRemoved = 0;
-					
-					for(int row = 1; row < ROWS; row++)
-					{
-						if(filledRow(row))
-						{
-							rowsRemoved++;
-							
-							if(filledRowStart == NO_FILLED_ROW)
-								filledRowStart = row;
-							
-							filledRowEnd = row;
-						}
-					}
-					
-					if(rowsRemoved == 4)
-						Audio.play("sounds/line-removal4.wav", false);
-					else if(rowsRemoved > 0)
-						Audio.play("sounds/line-remove.wav", false);
-				}
-			}
+		try {
+			metrics.register();
+		} catch (JMException e) {
+			System.err.println("Metrics are not available over JMX: " + e);
 		}
-		else
-		{
-			int c2 = COLS / 2;
 		
-			for(int row = filledRowStart; row <= filledRowEnd; row++)
-			{
-				for(int col = 0; col < COLS; col++)
-				{
-					if(elapsed > (c2 - Math.abs(col - c2)) * REMOVE_ROW_PERIOD / c2)
-						grid[row][col] = null;
-				}
+		Runtime.getRuntime().addShutdownHook(new Thread("Latency Report") {
+			public void run() {
+				System.out.println(latency);
 			}
-			
-			if(elapsed > REMOVE_ROW_PERIOD)
-			{
-				elapsed = 0;
-				
-				for(int i = 0; i < filledRowEnd - filledRowStart + 1; i++)
-					dropRow(filledRowStart);
-				
-				filledRowStart = filledRowEnd = NO_FILLED_ROW;
-			
-				score += 100 * (filledRowEnd - filledRowStart + 1);
-				
-				if(bestScore < score)
-					bestScore = score;
-			}
-		}
+		});
+		
+		Audio.play(SoundEffects.START, false);
+		Audio.play(SoundEffects.MUSIC, true);
 	}
 	
-	public void paint(Graphics g)
+	/**
+	 * Records the game from here on. Must be called before the simulation
+	 * starts, and the update rate must not change while recording.
+	 */
+	private void startRecording(File file)
 	{
-		g.setColor(new Color(3, 25, 42));
-		
-		g.fillRect(0, 0, SCENE_WIDTH, SCENE_HEIGHT);
-				
-		for(int row = 0; row < ROWS; row++)
-		{
-			for(int col = 0; col < COLS; col++)
-			{
-				int x = col * COL_WIDTH,
-					y = row * ROW_HEIGHT;
-				
-				if(grid[row][col] != null)
-					grid[row][col].paintComponent(g, x, y);
-			}
-		}
-		
-		currPiece.paint(g);
-		
-		g.setColor(Color.BLACK);
-
-		for(int row = 0; row < ROWS; row++)
-		{
-			for(int col = 0; col < COLS; col++)
-			{
-				int x = col * COL_WIDTH,
-					y = row * ROW_HEIGHT;
+		try {
+			replay = new ReplayWriter(file.toPath(), game, updater.getStepNanos());
+		} catch (IOException e) {
+			System.err.println("Cannot record replay: " + e);
 			
-				g.drawRect(x, y, COL_WIDTH, ROW_HEIGHT);
-			}
+			return;
 		}
-	}
-	
-	private boolean filledRow(int row)
-	{
-		for(int col = 0; col < COLS; col++)
-			if(grid[row][col] == null)
-				return false;
 		
-		return true;
+		Runtime.getRuntime().addShutdownHook(new Thread("Replay Writer") {
+			public void run() {
+				stopRecording();
+			}
+		});
 	}
 	
-	private void dropRow(int row)
+	private void stopRecording()
 	{
-		for(int r = row; r > 0; r--)
-			for(int col = 0; col < COLS; col++)
-				grid[r][col] = grid[r - 1][col];
-	}
-	
-	public void setDropMode(DropMode dropMode) {
-		this.dropMode = dropMode;
+		try {
+			replay.close();
+		} catch (IOException e) {
+			System.err.println("Replay was not saved: " + e);
+		}
 	}
 	
-	public void hardDrop() 
+	/** Advances the simulation by one fixed step and publishes the result. */
+	public void update(double dt)
 	{
-		elapsed = 0;
+		if(input.drainTo(game, replay) > 0)
+			latency.applied(input.getDrainIssued());
 		
-		while(!currPiece.collides())
-			currPiece.moveDown();
-
-		currPiece.moveUp();
-		currPiece.split();
-
-		Audio.play("sounds/line-drop.wav", false);
+		game.update(dt);
 		
-		currPiece = nextPiece;
-			
-		nextPiece = randomPiece();
-			
-		int rowsRemoved = 0;
-		
-		for(int row = 1; row < ROWS; row++)
-		{
-			if(filledRow(row))
-			{
-				rowsRemoved++;
-
-				if(filledRowStart == NO_FILLED_ROW)
-					filledRowStart = row;
-				
-				filledRowEnd = row;
+		if(replay != null)
+			try {
+				replay.step(game);
+			} catch (IOException e) {
+				System.err.println("Replay was not saved: " + e);
 			}
-		}
 		
-		if(rowsRemoved == 4)
-			Audio.play("sounds/line-removal4.wav", false);
-		else if(rowsRemoved > 0)
-			Audio.play("sounds/line-remove.wav", false);
+		snapshot = new Snapshot(game, latency.getPendingIssued(), latency.getPendingApplied());
 	}
 	
-	public Piece getNextPiece() {
-		return nextPiece;
-	}
-
-	public void moveCurrentPieceLeft() 
-	{
-		currPiece.moveLeft();
-	
-		if(currPiece.collides())
-			currPiece.moveRight();
-	}
-
-	public void moveCurrentPieceRight() 
-	{
-		currPiece.moveRight();
-		
-		if(currPiece.collides())
-			currPiece.moveLeft();
-	}
-
-	public void rotateCurrentPieceLeft() 
-	{
-		currPiece.rotateLeft();
-		
-		if(currPiece.collides())
-			currPiece.rotateRight();		
-	}
-
-	public void rotateCurrentPieceRight() 
-	{
-		currPiece.rotateRight();
-		
-		if(currPiece.collides())
-			currPiece.rotateLeft();
+	public void paintPiece(Graphics g, Piece piece, int x, int y) {
+		renderer.paintPiece(g, piece, x, y);
 	}
 	
-	public Updater getUpdater() {
-		return updater;
+	public Renderer getRenderer() {
+		return renderer;
 	}
 	
-	public int getScore() {
-		return score;
+	public Game getGame() {
+		return game;
 	}
 	
-	public int getBestScore() {
-		return bestScore;
+	/** Keyboard input; fed from the EDT and drained by the simulation. */
+	public InputQueue getInput() {
+		return input;
 	}
 	
-	public double getTime() {
-		return time;
+	/** The latest state published by the simulation, safe to read from any thread. */
+	public Snapshot getSnapshot() {
+		return snapshot;
 	}
 	
-	public UI getUI() {
-		return ui;
+	public InputLatency getLatency() {
+		return latency;
 	}
 	
-	private class Square
-	{
-		private Color color;
-		
-		public Square() {
-			color = Color.RED;
-		}
-		
-		public Square(Color color) {
-			this.color = color;
-		}
-		
-		public void paintComponent(Graphics g, int x, int y)
-		{
-			int imgx = 0;
-			
-			if(color == Color.CYAN)
-				imgx = 0;
-			else if(color == Color.YELLOW)
-				imgx = 20;
-			else if(color == Color.MAGENTA)
-				imgx = 40;
-			else if(color == Color.GREEN)
-				imgx = 60;
-			else if(color == Color.RED)
-				imgx = 80;
-			else if(color == Color.BLUE)
-				imgx = 100;
-			else if(color == Color.ORANGE)
-				imgx = 120;
-			else
-			{
-				g.setColor(color);
-				
-				g.fillRect(x, y, COL_WIDTH, ROW_HEIGHT);
-			
-				return;
-			}
-			
-			g.drawImage(pieceImg, x, y, x + 20, y + 20, 
-								  imgx, 0, imgx + 20, 20, null);
-		}
+	public GameMetrics getMetrics() {
+		return metrics;
 	}
 	
-	public abstract class Piece
-	{
-		protected int row, col;
-		
-		private Color color;
-		
-		protected int orientation;
-		
-		public Piece(int row, int col, Color color)
-		{
-			this.row = row;
-			this.col = col;
-			
-			this.color = color;
-		}
-		
-		public abstract int[][] indices();
-		
-		public void paint(Graphics g, int x, int y)
-		{
-			int[][] indices = indices();
-			
-			Square square = new Square(color);
-			
-			for(int i = 0; i < indices.length; i++)
-			{
-				int row = indices[i][1],
-					col = indices[i][0];
-								
-				square.paintComponent(g, x + col * COL_WIDTH, y + row * ROW_HEIGHT);
-			}
-		}
-		
-		public void paint(Graphics g)
-		{
-			int[][] indices = indices();
-					
-			Square square = new Square(color);
-			
-			for(int i = 0; i < indices.length; i++)
-			{
-				int pieceRow = row + indices[i][1],
-					pieceCol = col + indices[i][0];
-								
-				square.paintComponent(g, pieceCol * COL_WIDTH, pieceRow * ROW_HEIGHT);
-			}
-		}
-		
-		public void split()
-		{
-			int[][] indices = indices();
-
-			Square square = new Square(color);
-			
-			for(int i = 0; i < indices.length; i++)
-			{
-				int pieceRow = row + indices[i][1],
-					pieceCol = col + indices[i][0];
-
-				grid[pieceRow][pieceCol] = square;
-			}
-		}
-		
-		public void rotateLeft()
-		{
-			orientation--;
-			if(orientation < 0)
-				orientation = 3;
-			Audio.play("sounds/block-rotate.wav", false);
-		}
-		
-		public void rotateRight()
-		{
-			orientation++;
-			orientation %= 4;
-			Audio.play("sounds/block-rotate.wav", false);
-		}
-		
-		public void moveUp() { row--; }
-		
-		public void moveDown() { row++; }
-		
-		public void moveLeft() { col--; }
-		
-		public void moveRight() { col++; }
-		
-		public boolean collides()
-		{
-			int[][] indices = indices();
-						
-			for(int i = 0; i < indices.length; i++)
-			{
-				int pieceRow = row + indices[i][1],
-					pieceCol = col + indices[i][0];
-				
-				if(pieceRow < 0)
-					continue;
-				else if(pieceCol < 0 || pieceCol >= COLS ||
-						pieceRow >= ROWS || grid[pieceRow][pieceCol] != null)
-					return true;
-			}
-			
-			return false;
-		}
-	}
-	
-	private class I extends Piece
-	{
-		public I(int row, int col) {
-			super(row, col, Color.CYAN);
-		}
-
-		@Override
-		public int[][] indices() 
-		{
-			int[][] indices = new int[5][2];
-			
-			indices[0][0] = 0; indices[0][1] = 0;
-			
-			if(orientation == 0)
-			{
-				indices[1][0] = -1; indices[1][1] = 0;
-				indices[2][0] = 1; indices[2][1] = 0;
-				indices[3][0] = 2; indices[3][1] = 0;
-			}
-			else if(orientation == 3)
-			{
-				indices[1][0] = 0; indices[1][1] = -1;
-				indices[2][0] = 0; indices[2][1] = 1;
-				indices[3][0] = 0; indices[3][1] = 2;
-			}
-			else if(orientation == 2)
-			{
-				indices[1][0] = -2; indices[1][1] = 0;
-				indices[2][0] = -1; indices[2][1] = 0;
-				indices[3][0] = 1; indices[3][1] = 0;
-			}
-			else
-			{
-				indices[1][0] = 0; indices[1][1] = -2;
-				indices[2][0] = 0; indices[2][1] = -1;
-				indices[3][0] = 0; indices[3][1] = 1;
-			}
-			
-			return indices;
-		}
-	}
-
-	private class O extends Piece
-	{
-		public O(int row, int col) {
-			super(row, col, Color.YELLOW);
-		}
-	
-		@Override
-		public int[][] indices() 
-		{
-			int[][] indices = new int[5][2];
-			
-			indices[0][0] = 0; indices[0][1] = 0;
-			indices[1][0] = 1; indices[1][1] = 0;
-			indices[2][0] = 0; indices[2][1] = 1;
-			indices[3][0] = 1; indices[3][1] = 1;
-			
-			return indices;
-		}
-	}
-	
-	private class T extends Piece
-	{
-		public T(int row, int col) {
-			super(row, col, Color.MAGENTA);
-		}
-
-		@Override
-		public int[][] indices() 
-		{
-			int[][] indices = new int[5][2];
-			
-			indices[0][0] = 0; indices[0][1] = 0;
-			
-			if(orientation == 0)
-			{
-				indices[1][0] = -1; indices[1][1] = 0;
-				indices[2][0] = 1; indices[2][1] = 0;
-				indices[3][0] = 0; indices[3][1] = 1;
-			}
-			else if(orientation == 1)
-			{
-				indices[1][0] = 0; indices[1][1] = -1;
-				indices[2][0] = 0; indices[2][1] = 1;
-				indices[3][0] = 1; indices[3][1] = 0;
-			}
-			else if(orientation == 2)
-			{
-				indices[1][0] = -1; indices[1][1] = 0;
-				indices[2][0] = 1; indices[2][1] = 0;
-				indices[3][0] = 0; indices[3][1] = -1;
-			}
-			else
-			{
-				indices[1][0] = 0; indices[1][1] = -1;
-				indices[2][0] = 0; indices[2][1] = 1;
-				indices[3][0] = -1; indices[3][1] = 0;
-			}
-			
-			return indices;
-		}
-	}
-
-	private class S extends Piece
-	{
-		public S(int row, int col) {
-			super(row, col, Color.GREEN);
-		}
-
-		@Override
-		public int[][] indices() 
-		{
-			int[][] indices = new int[5][2];
-			
-			indices[0][0] = 0; indices[0][1] = 0;
-			
-			if(orientation == 0)
-			{
-				indices[1][0] = -1; indices[1][1] = 0;
-				indices[2][0] = 0; indices[2][1] = 1;
-				indices[3][0] = 1; indices[3][1] = 1;
-			}
-			else if(orientation == 1)
-			{
-				indices[1][0] = 0; indices[1][1] = 1;
-				indices[2][0] = 1; indices[2][1] = 0;
-				indices[3][0] = 1; indices[3][1] = -1;
-			}
-			else if(orientation == 2)
-			{
-				indices[1][0] = 1; indices[1][1] = 0;
-				indices[2][0] = 0; indices[2][1] = -1;
-				indices[3][0] = -1; indices[3][1] = -1;
-			}
-			else
-			{
-				indices[1][0] = -1; indices[1][1] = 0;
-				indices[2][0] = -1; indices[2][1] = 1;
-				indices[3][0] = 0; indices[3][1] = -1;
-			}
-			
-			return indices;
-		}
-	}
-	
-	private class Z extends Piece
-	{
-		public Z(int row, int col) {
-			super(row, col, Color.RED);
-		}
-
-		@Override
-		public int[][] indices() 
-		{
-			int[][] indices = new int[5][2];
-			
-			indices[0][0] = 0; indices[0][1] = 0;
-			
-			if(orientation == 0)
-			{
-				indices[1][0] = 0; indices[1][1] = 1;
-				indices[2][0] = -1; indices[2][1] = 1;
-				indices[3][0] = 1; indices[3][1] = 0;
-			}
-			else if(orientation == 1)
-			{
-				indices[1][0] = 0; indices[1][1] = -1;
-				indices[2][0] = 1; indices[2][1] = 0;
-				indices[3][0] = 1; indices[3][1] = 1;
-			}
-			else if(orientation == 2)
-			{
-				indices[1][0] = -1; indices[1][1] = 0;
-				indices[2][0] = 0; indices[2][1] = -1;
-				indices[3][0] = 1; indices[3][1] = -1;
-			}
-			else
-			{
-				indices[1][0] = 0; indices[1][1] = 1;
-				indices[2][0] = -1; indices[2][1] = 0;
-				indices[3][0] = -1; indices[3][1] = -1;
-			}
-			
-			return indices;
-		}
+	public Updater getUpdater() {
+		return updater;
 	}
 	
-	private class J extends Piece
-	{
-		public J(int row, int col) {
-			super(row, col, Color.BLUE);
-		}
-
-		@Override
-		public int[][] indices() 
-		{
-			int[][] indices = new int[5][2];
-			
-			indices[0][0] = 0; indices[0][1] = 0;
-			
-			if(orientation == 0)
-			{
-				indices[1][0] = -1; indices[1][1] = 0;
-				indices[2][0] = -1; indices[2][1] = 1;
-				indices[3][0] = 1; indices[3][1] = 0;
-			}
-			else if(orientation == 1)
-			{
-				indices[1][0] = 0; indices[1][1] = -1;
-				indices[2][0] = 0; indices[2][1] = 1;
-				indices[3][0] = 1; indices[3][1] = 1;
-			}
-			else if(orientation == 2)
-			{
-				indices[1][0] = -1; indices[1][1] = 0;
-				indices[2][0] = 1; indices[2][1] = 0;
-				indices[3][0] = 1; indices[3][1] = -1;
-			}
-			else
-			{
-				indices[1][0] = 0; indices[1][1] = -1;
-				indices[2][0] = 0; indices[2][1] = 1;
-				indices[3][0] = -1; indices[3][1] = -1;
-			}
-			
-			return indices;
-		}
+	public RenderLoop getRenderLoop() {
+		return renderLoop;
 	}
 	
-	private class L extends Piece
-	{
-		public L(int row, int col) {
-			super(row, col, Color.ORANGE);
-		}
-
-		@Override
-		public int[][] indices() 
-		{
-			int[][] indices = new int[5][2];
-			
-			indices[0][0] = 0; indices[0][1] = 0;
-			
-			if(orientation == 0)
-			{
-				indices[1][0] = -1; indices[1][1] = 0;
-				indices[2][0] = 1; indices[2][1] = 0;
-				indices[3][0] = 1; indices[3][1] = 1;
-			}
-			else if(orientation == 1)
-			{
-				indices[1][0] = 0; indices[1][1] = -1;
-				indices[2][0] = 0; indices[2][1] = 1;
-				indices[3][0] = 1; indices[3][1] = -1;
-			}
-			else if(orientation == 2)
-			{
-				indices[1][0] = -1; indices[1][1] = 0;
-				indices[2][0] = 1; indices[2][1] = 0;
-				indices[3][0] = -1; indices[3][1] = -1;
-			}
-			else
-			{
-				indices[1][0] = 0; indices[1][1] = -1;
-				indices[2][0] = 0; indices[2][1] = 1;
-				indices[3][0] = -1; indices[3][1] = 1;
-			}
-			
-			return indices;
-		}
+	public UI getUI() {
+		return ui;
 	}
 }
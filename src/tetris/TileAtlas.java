@@ -0,0 +1,108 @@
+package tetris;
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * The tetromino sprite sheet sliced into one tile per piece type. Tiles
+ * are display-compatible images pre-rendered at the current cell size,
+ * so drawing a cell is an array lookup and an unscaled blit. Each type
+ * also has a faded ghost tile, already blended onto the background.
+ */
+public class TileAtlas
+{
+	public static final int TILE_SIZE = 20;
+	
+	private static final float GHOST_ALPHA = 0.3f;
+	
+	private BufferedImage sheet;
+	
+	// indexed by piece type and Board.GARBAGE, 0 (empty) is unused
+	private BufferedImage[] tiles, ghosts;
+	
+	private int tileWidth, tileHeight;
+	
+	public TileAtlas(BufferedImage source)
+	{
+		sheet = createImage(source.getWidth(), source.getHeight());
+		
+		Graphics g = sheet.getGraphics();
+		g.drawImage(source, 0, 0, null);
+		g.dispose();
+		
+		tiles = new BufferedImage[Board.GARBAGE + 1];
+		ghosts = new BufferedImage[Piece.TYPES + 1];
+		
+		setTileSize(TILE_SIZE, TILE_SIZE);
+	}
+	
+	public void setTileSize(int width, int height)
+	{
+		if(width == tileWidth && height == tileHeight)
+			return;
+		
+		tileWidth = width;
+		tileHeight = height;
+		
+		for(int type = 1; type <= Piece.TYPES; type++)
+		{
+			int sx = (type - 1) * TILE_SIZE;
+			
+			tiles[type] = createImage(width, height);
+			
+			Graphics g = tiles[type].getGraphics();
+			g.drawImage(sheet, 0, 0, width, height, sx, 0, sx + TILE_SIZE, TILE_SIZE, null);
+			g.dispose();
+			
+			ghosts[type] = createImage(width, height);
+			
+			Graphics2D ghost = (Graphics2D) ghosts[type].getGraphics();
+			ghost.setColor(Renderer.BACKGROUND);
+			ghost.fillRect(0, 0, width, height);
+			ghost.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, GHOST_ALPHA));
+			ghost.drawImage(tiles[type], 0, 0, null);
+			ghost.dispose();
+		}
+		
+		tiles[Board.GARBAGE] = createImage(width, height);
+		
+		Graphics g = tiles[Board.GARBAGE].getGraphics();
+		g.setColor(Color.GRAY);
+		g.fillRect(0, 0, width, height);
+		g.setColor(Color.DARK_GRAY);
+		g.drawRect(0, 0, width - 1, height - 1);
+		g.dispose();
+	}
+	
+	public int getTileWidth() {
+		return tileWidth;
+	}
+	
+	public int getTileHeight() {
+		return tileHeight;
+	}
+	
+	public void paint(Graphics g, byte type, int x, int y) {
+		g.drawImage(tiles[type], x, y, null);
+	}
+	
+	public void paintGhost(Graphics g, byte type, int x, int y) {
+		g.drawImage(ghosts[type], x, y, null);
+	}
+	
+	/** An opaque image in the screen's native format, when there is a screen. */
+	static BufferedImage createImage(int width, int height)
+	{
+		if(GraphicsEnvironment.isHeadless())
+			return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		
+		return GraphicsEnvironment.getLocalGraphicsEnvironment()
+								  .getDefaultScreenDevice()
+								  .getDefaultConfiguration()
+								  .createCompatibleImage(width, height, Transparency.OPAQUE);
+	}
+}
@@ -1,24 +1,21 @@
 package tetris;
 import java.awt.BorderLayout;
+import java.awt.Canvas;
 import java.awt.Color;
 import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.FontFormatException;
 import java.awt.Graphics;
-import java.awt.Graphics2D;
 import java.awt.GraphicsEnvironment;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
+import java.awt.Toolkit;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.awt.geom.AffineTransform;
-import java.awt.image.BufferedImage;
+import java.awt.image.BufferStrategy;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 import java.util.Locale;
 
 import javax.swing.BorderFactory;
@@ -26,6 +23,7 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 
 public class UI 
 {	
@@ -35,9 +33,7 @@ public class UI
 	
 //	private Container cont;
 	
-	private BufferedImage offscr;
-	
-	private GridPane gridPane;
+	private GridCanvas gridCanvas;
 	
 	private NextPane nextPane;
 	
@@ -53,9 +49,7 @@ public class UI
 		
 		frame = new JFrame();
 		
-		offscr = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
-		
-		gridPane = new GridPane();
+		gridCanvas = new GridCanvas();
 		
 		nextPane = new NextPane();
 		
@@ -77,7 +71,7 @@ public class UI
 		c.gridwidth = 1; c.gridheight = 4;
 		c.fill = c.BOTH;
 		c.weightx = 1; c.weighty = 1; 
-		cont.add(gridPane, c);
+		cont.add(gridCanvas, c);
 		
 		c.gridx = 1; c.gridy = 0;
 		c.gridwidth = 1; c.gridheight = 1;
@@ -103,7 +97,7 @@ public class UI
 		c.weightx = 0.2; c.weighty = 1;
 		cont.add(timePane, c);
 	
-		cont.setIgnoreRepaint(true);
+		tetris.getGame().addGameListener(new PanelUpdater());
 		
 		frame.setSize(450, 650);
 		frame.setResizable(false);
@@ -127,38 +121,69 @@ public class UI
 	
 	private double elapsed;
 	
+	private int shownSeconds;
+	
+	/** Presents one frame. Called on the render thread. */
 	public void update(double dt)
 	{
-		gridPane.update(dt);
-		
 		elapsed += dt;
 		
 		if(elapsed > 1)
 		{
 			elapsed = 0;
 			
-			Updater updater = tetris.getUpdater();
-		
-			frame.setTitle("Tetris Clone | FPS: " + updater.getFPS() + " | Ticks: " + updater.getTicks());
+			frame.setTitle("Tetris Clone | FPS: " + tetris.getRenderLoop().getFPS() + 
+						   " | Ticks: " + tetris.getUpdater().getTicks() +
+						   " | Input p99: " + tetris.getLatency().getTotalLatency().getPercentile(0.99) / 1000 + " us");
 		}
 		
-		Container cont = frame.getContentPane();
+		Snapshot snapshot = tetris.getSnapshot();
 		
-		Dimension contSize = cont.getSize(),
-				  offscrSize = new Dimension(offscr.getWidth(), offscr.getHeight());
+		boolean drawn = gridCanvas.render(snapshot);
 		
-		if(contSize.width == 0 || contSize.height == 0)
-			return;
+		tetris.getLatency().presented(snapshot, drawn);
 		
-		if(!contSize.equals(offscrSize))
-			offscr = new BufferedImage(contSize.width, contSize.height, BufferedImage.TYPE_INT_ARGB);
-			
-		Graphics g = offscr.getGraphics();
+		final int seconds = (int) snapshot.getTime();
 		
-		cont.paint(g);
+		if(seconds != shownSeconds)
+		{
+			shownSeconds = seconds;
+			
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					timePane.setTime(seconds);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Pushes score and next piece changes to the side panels. Runs on the
+	 * simulation thread, so values are copied before moving to the EDT.
+	 */
+	private class PanelUpdater extends GameAdapter
+	{
+		public void pieceSpawned()
+		{
+			final Piece next = tetris.getGame().getNextPiece().copy();
+			
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					nextPane.setPiece(next);
+				}
+			});
+		}
 		
-		cont.getGraphics()
-			.drawImage(offscr, 0, 0, null);
+		public void scoreChanged(final int score, final int bestScore)
+		{
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() 
+				{
+					scorePane.setScore(score);
+					bestPane.setScore(bestScore);
+				}
+			});
+		}
 	}
 	
 	public void show() 
@@ -167,24 +192,37 @@ public class UI
 		while(!frame.isVisible()) {}
 	}
 	
+	public void dispose() {
+		frame.dispose();
+	}
+	
 //	public Container getContent() {
 //		return cont;
 //	}
 	
-	private class GridPane extends JPanel implements KeyListener
+	/**
+	 * Heavyweight canvas the playfield is page-flipped onto from the render
+	 * thread through a {@link BufferStrategy}, bypassing Swing painting.
+	 * Frames in which no cell changed are not presented at all.
+	 */
+	private class GridCanvas extends Canvas implements KeyListener
 	{
 		private static final long serialVersionUID = 1L;
 		
-		private List<KeyEvent> pressedKeyEvents,
-							   releasedKeyEvents;
+		private static final int BUFFERS = 3;
+		
+		// present at least this often so an exposed window does not stay blank
+		private static final long MAX_IDLE_NANOS = 1000000000L;
+		
+		private BufferStrategy strategy;
+		
+		private Dimension presentedSize;
 		
-		public GridPane()
+		private long lastPresent;
+		
+		public GridCanvas()
 		{
-			pressedKeyEvents = Collections.synchronizedList(new ArrayList<KeyEvent>());
-			
-			releasedKeyEvents = Collections.synchronizedList(new ArrayList<KeyEvent>());
-
-			setBorder(BorderFactory.createLineBorder(Color.black));
+			setIgnoreRepaint(true);
 		
 			addKeyListener(this);
 		}
@@ -196,67 +234,86 @@ public class UI
 			requestFocusInWindow();
 		}
 		
-		public void update(double dt)
+		/** Returns whether a new frame was presented. */
+		public boolean render(Snapshot snapshot)
 		{
-			synchronized(pressedKeyEvents)
+			Dimension size = getSize();
+			
+			if(!isDisplayable() || size.width == 0 || size.height == 0)
+				return false;
+			
+			if(strategy == null)
 			{
-				for(KeyEvent e : pressedKeyEvents)
-				{
-					int code = e.getKeyCode();
-					
-					if(code == KeyEvent.VK_LEFT)
-						tetris.moveCurrentPieceLeft();
-					else if(code == KeyEvent.VK_RIGHT)
-						tetris.moveCurrentPieceRight();
-					else if(code == KeyEvent.VK_UP)
-						tetris.rotateCurrentPieceLeft();
-					else if(code == KeyEvent.VK_DOWN)
-						tetris.setDropMode(Tetris.DropMode.SOFT);
-					else if(code == KeyEvent.VK_SPACE)
-						tetris.hardDrop();
-				}
+				createBufferStrategy(BUFFERS);
 				
-				pressedKeyEvents.clear();
+				strategy = getBufferStrategy();
 			}
 			
-			synchronized(releasedKeyEvents)
+			Renderer renderer = tetris.getRenderer();
+			
+			// whole pixels per cell, so tiles are blitted square and unscaled
+			renderer.fitTo(size.width, size.height);
+			
+			boolean changed = renderer.update(snapshot);
+			
+			long now = System.nanoTime();
+			
+			if(!changed && size.equals(presentedSize) && !strategy.contentsLost() &&
+			   now - lastPresent < MAX_IDLE_NANOS)
+				return false;
+			
+			do
 			{
-				for(KeyEvent e : pressedKeyEvents)
+				do
 				{
-					int code = e.getKeyCode();
+					Graphics g = strategy.getDrawGraphics();
 					
-					if(code == KeyEvent.VK_DOWN)
-						tetris.setDropMode(Tetris.DropMode.NORMAL);
+					try {
+						renderer.present(g, size.width, size.height);
+					} finally {
+						g.dispose();
+					}
 				}
+				while(strategy.contentsRestored());
 				
-				releasedKeyEvents.clear();
+				strategy.show();
 			}
-		}
-		
-		public void paintComponent(Graphics g)
-		{
-			Graphics2D g2d = (Graphics2D) g;
-
-			Dimension size = getSize();
-	
-			AffineTransform transform = g2d.getTransform();
+			while(strategy.contentsLost());
 			
-			g2d.scale(size.width * 1.0 / Tetris.SCENE_WIDTH,
-					  size.height * 1.0 / Tetris.SCENE_HEIGHT);
+			Toolkit.getDefaultToolkit().sync();
 			
-			tetris.paint(g);
+			presentedSize = size;
+			lastPresent = now;
 			
-			g2d.setTransform(transform);
+			return true;
 		}
-
+		
 		@Override
-		public void keyPressed(KeyEvent e) {
-			pressedKeyEvents.add(e);
+		public void keyPressed(KeyEvent e)
+		{
+			InputQueue input = tetris.getInput();
+					
+			long now = System.nanoTime();
+				
+			int code = e.getKeyCode();
+			
+			if(code == KeyEvent.VK_LEFT)
+				input.offer(InputQueue.MOVE_LEFT, now);
+			else if(code == KeyEvent.VK_RIGHT)
+				input.offer(InputQueue.MOVE_RIGHT, now);
+			else if(code == KeyEvent.VK_UP)
+				input.offer(InputQueue.ROTATE_LEFT, now);
+			else if(code == KeyEvent.VK_DOWN)
+				input.offer(InputQueue.SOFT_DROP, now);
+			else if(code == KeyEvent.VK_SPACE)
+				input.offer(InputQueue.HARD_DROP, now);
 		}
-
+		
 		@Override
-		public void keyReleased(KeyEvent e) {
-			releasedKeyEvents.add(e);
+		public void keyReleased(KeyEvent e)
+		{
+			if(e.getKeyCode() == KeyEvent.VK_DOWN)
+				tetris.getInput().offer(InputQueue.NORMAL_DROP);
 		}
 
 		@Override
@@ -269,8 +326,12 @@ public class UI
 		
 		private JPanel nextPiecePanel;
 		
+		private Piece piece;
+		
 		public NextPane()
 		{
+			piece = tetris.getGame().getNextPiece().copy();
+			
 			nextLabel = new JLabel("NEXT", SwingConstants.CENTER);
 			
 			nextLabel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
@@ -279,14 +340,12 @@ public class UI
 			{
 				public void paintComponent(Graphics g)
 				{
-					Tetris.Piece piece = tetris.getNextPiece();
-					
 					Dimension size = getSize();
 					
 					double x = size.getWidth()/2 - Tetris.COL_WIDTH,
 						   y = size.getHeight()/2 - Tetris.ROW_HEIGHT;
 					
-					piece.paint(g, (int) x, (int) y);
+					tetris.paintPiece(g, piece, (int) x, (int) y);
 				}
 			};
 			
@@ -302,6 +361,13 @@ public class UI
 			
 			setBorder(BorderFactory.createLineBorder(Color.blue, 5));
 		}
+		
+		public void setPiece(Piece piece)
+		{
+			this.piece = piece;
+			
+			nextPiecePanel.repaint();
+		}
 	}
 	
 	private class ScorePane extends JPanel
@@ -313,11 +379,7 @@ public class UI
 		{
 			titleLabel = new JLabel("SCORE");
 			
-			scoreLabel = new JLabel() {
-				public String getText() {
-					return "" + tetris.getScore();
-				}
-			};
+			scoreLabel = new JLabel("0");
 			
 			titleLabel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
 			titleLabel.setFont(new Font("CHMC Pixel", Font.BOLD, 20));
@@ -340,6 +402,10 @@ public class UI
 			setBackground(new Color(0, 31, 73));
 			setBorder(BorderFactory.createLineBorder(Color.blue, 5));
 		}
+		
+		public void setScore(int score) {
+			scoreLabel.setText("" + score);
+		}
 	}
 	
 	private class BestPane extends JPanel
@@ -351,12 +417,7 @@ public class UI
 		{
 			titleLabel = new JLabel("BEST");
 			
-			scoreLabel = new JLabel()
-			{
-				public String getText() {
-					return "" + tetris.getBestScore();
-				}
-			};
+			scoreLabel = new JLabel("0");
 			
 			titleLabel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
 			titleLabel.setFont(new Font("CHMC Pixel", Font.BOLD, 20));
@@ -377,6 +438,10 @@ public class UI
 			setBackground(new Color(0, 31, 73));
 			setBorder(BorderFactory.createLineBorder(Color.blue, 5));
 		}
+		
+		public void setScore(int score) {
+			scoreLabel.setText("" + score);
+		}
 	}
 	
 	private class TimePane extends JPanel
@@ -388,22 +453,7 @@ public class UI
 		{
 			titleLabel = new JLabel("TIME");
 			
-			timeLabel = new JLabel()
-			{
-				public String getText() 
-				{
-					double time = tetris.getTime();
-					
-					int minutes = (int)(time / 60),
-						seconds = (int)(time - minutes * 60);
-					
-					if(minutes > 99) minutes = 99;
-					
-					String str = String.format("%02d:%02d", minutes, seconds);
-				
-					return str;
-				}
-			};
+			timeLabel = new JLabel("00:00");
 
 			titleLabel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
 			titleLabel.setFont(new Font("CHMC Pixel", Font.BOLD, 20));
@@ -424,5 +474,15 @@ public class UI
 			setBackground(new Color(0, 31, 73));
 			setBorder(BorderFactory.createLineBorder(Color.blue, 5));
 		}
+		
+		public void setTime(int time)
+		{
+			int minutes = time / 60,
+				seconds = time % 60;
+			
+			if(minutes > 99) minutes = 99;
+			
+			timeLabel.setText(String.format("%02d:%02d", minutes, seconds));
+		}
 	}
 }
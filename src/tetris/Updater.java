@@ -1,25 +1,59 @@
 package tetris;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Drives the simulation with a fixed step. Steps are always exactly
+ * 1 / updateRate seconds, with an accumulator absorbing the difference
+ * from wall-clock time, so gravity and line-clear timings do not depend
+ * on machine load. Steps are paced by parking until shortly before the
+ * deadline and then yielding, which keeps them within microseconds of
+ * the target instead of the whole milliseconds Thread.sleep offers.
+ * Rendering runs separately on a {@link RenderLoop}.
+ */
 public class Updater implements Runnable
 {
-	private final static int TARGET_FPS = 60;
+	public final static int DEFAULT_UPDATE_RATE = 60;
+	
+	// the last stretch before a deadline is spent yielding, not parked
+	private final static long SPIN_NANOS = 1000000;
+	
+	// after a long stall, drop simulation time instead of catching up
+	private final static int MAX_CATCH_UP_STEPS = 10;
+	
+	// steps between samples of what the simulation thread has allocated
+	private final static int ALLOCATION_SAMPLE_TICKS = DEFAULT_UPDATE_RATE;
 	
 	private Tetris tetris;
 	
-	private boolean running;
+	private volatile boolean running;
 	
 	private Thread thread;
 	
-	private int fps, ticks;
+	private volatile long stepNanos;
+	
+	private volatile int ticks;
+	
+	private volatile long missedDeadlines, missedDuringGC;
+	
+	private volatile long allocatedBytesPerTick = -1;
+	
+	// simulation thread only: allocated bytes and ticks at the last sample
+	private long sampledBytes, sampledTicks;
+	
+	private LatencyHistogram updateTime;
 	
 	public Updater(Tetris tetris)
 	{
 		this.tetris = tetris;
 		
-		thread = new Thread(this);
+		setUpdateRate(DEFAULT_UPDATE_RATE);
+		
+		updateTime = new LatencyHistogram();
+		
+		thread = new Thread(this, "Updater");
 	}
 	
-	public void start() 
+	public void start()
 	{
 		if(!running)
 		{
@@ -35,48 +69,120 @@ public class Updater implements Runnable
 			running = false;
 	}
 	
+	public void setUpdateRate(int updatesPerSecond) {
+		stepNanos = 1000000000L / updatesPerSecond;
+	}
+	
+	public long getStepNanos() {
+		return stepNanos;
+	}
+	
 	public void run()
 	{
-		long start, end = System.nanoTime(),
-			 period = (long)(1.0e9 / TARGET_FPS),
-			 elapsed = 0;
+		long now = System.nanoTime(),
+			 last = now,
+			 accumulator = 0,
+			 gcCount = GameMetrics.getCollectionCount();
+		
+		sampledBytes = GameMetrics.getAllocatedBytes(thread.getId());
+		sampledTicks = ticks;
 		
-		int frames = 0;
-
 		while(running)
 		{
-			start = System.nanoTime();
-		
-			ticks++; frames++;
+			now = System.nanoTime();
+			
+			long step = stepNanos;
+			
+			accumulator += now - last;
+			
+			last = now;
 			
-			elapsed += (start - end);
+			if(accumulator > MAX_CATCH_UP_STEPS * step)
+				accumulator = MAX_CATCH_UP_STEPS * step;
 			
-			if(elapsed > 1.0e9)
+			long gc = GameMetrics.getCollectionCount();
+			
+			// woke up a whole step or more late
+			if(accumulator >= 2 * step)
 			{
-				fps = frames;
-				elapsed = frames = 0;
+				missedDeadlines++;
+				
+				if(gc != gcCount)
+					missedDuringGC++;
 			}
 			
-			tetris.update((start - end) / 1.0e9);
-		
-			end = System.nanoTime();
+			gcCount = gc;
 			
-			try 
+			while(accumulator >= step)
 			{
-				long sleep = period - (end - start);
+				long start = System.nanoTime();
+				
+				tetris.update(step / 1.0e9);
+				
+				updateTime.record(System.nanoTime() - start);
+				
+				accumulator -= step;
 				
-				if(sleep > 0)
-					Thread.sleep((long)(sleep / 1e6));
-			} 
-			catch (InterruptedException e) {}
+				ticks++;
+			}
+			
+			if(ticks - sampledTicks >= ALLOCATION_SAMPLE_TICKS)
+				sampleAllocation();
+			
+			waitUntil(now + step - accumulator);
 		}
 	}
-
-	public int getFPS() {
-		return fps;
+	
+	/** Publishes the bytes allocated per step since the last sample. */
+	private void sampleAllocation()
+	{
+		long bytes = GameMetrics.getAllocatedBytes(thread.getId());
+		
+		allocatedBytesPerTick = bytes < 0 || sampledBytes < 0 ? -1 : (bytes - sampledBytes) / (ticks - sampledTicks);
+		
+		sampledBytes = bytes;
+		sampledTicks = ticks;
 	}
-
+	
+	/** Parks, then yields, until System.nanoTime() reaches the deadline. */
+	static void waitUntil(long deadline)
+	{
+		long remaining;
+		
+		while((remaining = deadline - System.nanoTime()) > SPIN_NANOS)
+			LockSupport.parkNanos(remaining - SPIN_NANOS);
+		
+		while(deadline - System.nanoTime() > 0)
+			Thread.yield();
+	}
+	
 	public int getTicks() {
 		return ticks;
 	}
+	
+	/**
+	 * Bytes the simulation thread allocated per step over its last sample,
+	 * taken about once a second, or -1 if not measured.
+	 */
+	public long getAllocatedBytesPerTick() {
+		return allocatedBytesPerTick;
+	}
+	
+	public long getMissedDeadlines() {
+		return missedDeadlines;
+	}
+	
+	/** Missed deadlines where a garbage collection ran during the stall. */
+	public long getMissedDuringGC() {
+		return missedDuringGC;
+	}
+	
+	/** Time spent in each simulation step. */
+	public LatencyHistogram getUpdateTime() {
+		return updateTime;
+	}
+	
+	public long getThreadId() {
+		return thread.getId();
+	}
 }
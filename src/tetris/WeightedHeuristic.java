@@ -0,0 +1,48 @@
+package tetris;
+
+/**
+ * Linear combination of the usual board features: aggregate column
+ * height, lines cleared, covered holes and bumpiness (the summed height
+ * difference of neighbouring columns). All features are read from the
+ * row bitmasks in a single pass.
+ */
+public class WeightedHeuristic implements Heuristic
+{
+	public static final WeightedHeuristic DEFAULT = new WeightedHeuristic(-0.51, 0.76, -0.36, -0.18);
+	
+	private final double height, lines, holes, bumpiness;
+	
+	public WeightedHeuristic(double height, double lines, double holes, double bumpiness)
+	{
+		this.height = height;
+		this.lines = lines;
+		this.holes = holes;
+		this.bumpiness = bumpiness;
+	}
+	
+	public double evaluate(Board board, int linesCleared)
+	{
+		int seen = 0,
+			holeCount = 0,
+			aggregate = 0,
+			bumps = 0;
+		
+		for(int row = 0; row < Board.ROWS; row++)
+		{
+			int bits = board.getRow(row);
+			
+			holeCount += Integer.bitCount(~bits & seen & Board.FULL_ROW);
+			
+			// columns whose highest block is at or above this row
+			seen |= bits;
+			
+			aggregate += Integer.bitCount(seen);
+			
+			// neighbours where only one column reaches this row; summed over
+			// all rows that is the height difference of each pair
+			bumps += Integer.bitCount((seen ^ (seen >> 1)) & (Board.FULL_ROW >> 1));
+		}
+		
+		return height * aggregate + lines * linesCleared + holes * holeCount + bumpiness * bumps;
+	}
+}